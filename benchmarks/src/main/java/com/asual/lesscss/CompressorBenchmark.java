@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * cssmin and Closure Compiler minification of single resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressorBenchmark {
+
+	@Param({ "WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS" })
+	public String compilationLevel;
+
+	private String style;
+	private byte[] script;
+	private CompilationLevel level;
+
+	@Setup
+	public void setup() throws Exception {
+		File root = Fixtures.createTempRoot();
+		StyleCompressor.init();
+		style = new String(ResourceUtils.readBinaryFile(new File(root,
+				"css/style.css")), "UTF-8");
+		script = ResourceUtils.readBinaryFile(new File(root,
+				Fixtures.getScriptUri(1)));
+		level = CompilationLevel.valueOf(compilationLevel);
+	}
+
+	@Benchmark
+	public String cssmin() throws Exception {
+		return StyleCompressor.compress(style);
+	}
+
+	@Benchmark
+	public byte[] closure() throws Exception {
+		return ScriptResource.compile(
+				new String[] { Fixtures.getScriptUri(1) },
+				new byte[][] { script }, "UTF-8", level, false);
+	}
+}
\ No newline at end of file
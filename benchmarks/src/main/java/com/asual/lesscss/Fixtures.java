@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates a deterministic set of LESS, CSS and JavaScript sources so that
+ * benchmark results can be reproduced offline.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.asual.lesscss.Fixtures &lt;directory&gt;
+ * </pre>
+ */
+public class Fixtures {
+
+	public static final int[] DEPTHS = { 1, 4, 16 };
+	public static final int SCRIPTS = 50;
+	public static final long SEED = 20121018L;
+
+	public static File generate(File root) throws IOException {
+		Random random = new Random(SEED);
+		for (int depth : DEPTHS) {
+			for (int level = 0; level < depth; level++) {
+				StringBuilder sb = new StringBuilder();
+				if (level + 1 < depth) {
+					sb.append("@import \"level-" + (level + 1) + ".less\";\n");
+				}
+				sb.append("@color-" + level + ": #"
+						+ Integer.toHexString(0x100000 + random.nextInt(0xefffff))
+						+ ";\n");
+				sb.append(".mixin-" + level + "(@width) {\n");
+				sb.append("  width: @width;\n");
+				sb.append("  border: 1px solid darken(@color-" + level
+						+ ", 10%);\n");
+				sb.append("}\n");
+				for (int i = 0; i < 20; i++) {
+					sb.append(".block-" + level + "-" + i + " {\n");
+					sb.append("  color: @color-" + level + ";\n");
+					sb.append("  .mixin-" + level + "(" + random.nextInt(960)
+							+ "px);\n");
+					sb.append("  .child { margin: " + random.nextInt(32)
+							+ "px auto; }\n");
+					sb.append("}\n");
+				}
+				write(new File(root, "css/depth-" + depth + "/"
+						+ (level == 0 ? "style" : "level-" + level) + ".less"),
+						sb.toString());
+			}
+		}
+		StringBuilder css = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			css.append("/* rule " + i + " */\n");
+			css.append(".rule-" + i + " {\n");
+			css.append("    margin : " + random.nextInt(64) + "px  0px;\n");
+			css.append("    color : #ffffff;\n");
+			css.append("    background-color : #"
+					+ Integer.toHexString(0x100000 + random.nextInt(0xefffff))
+					+ ";\n");
+			css.append("}\n\n");
+		}
+		write(new File(root, "css/style.css"), css.toString());
+		for (int i = 1; i <= SCRIPTS; i++) {
+			StringBuilder js = new StringBuilder();
+			js.append("/*!\n * Module " + i + "\n */\n");
+			js.append("var module" + i + " = (function () {\n");
+			js.append("    var values = [];\n");
+			for (int j = 0; j < 10; j++) {
+				js.append("    function compute" + j + "(input) {\n");
+				js.append("        var result = input * " + random.nextInt(100)
+						+ ";\n");
+				js.append("        values.push(result);\n");
+				js.append("        return result + values.length;\n");
+				js.append("    }\n");
+			}
+			js.append("    return { compute: compute0, values: values };\n");
+			js.append("})();\n");
+			write(new File(root, "js/script-" + i + ".js"), js.toString());
+		}
+		return root;
+	}
+
+	public static String getLessUri(int depth) {
+		return "/css/depth-" + depth + "/style.less";
+	}
+
+	public static String getScriptUri(int index) {
+		return "/js/script-" + index + ".js";
+	}
+
+	public static String[] getScriptUris(int count) {
+		String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getScriptUri(i + 1);
+		}
+		return result;
+	}
+
+	public static File createTempRoot() throws IOException {
+		File root = File.createTempFile("lesscss", "fixtures");
+		if (!root.delete() || !root.mkdirs()) {
+			throw new IOException("Cannot create " + root + ".");
+		}
+		return generate(root);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory + ".");
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java " + Fixtures.class.getName()
+					+ " <directory>");
+			System.exit(1);
+		}
+		generate(new File(args[0]));
+	}
+}
\ No newline at end of file
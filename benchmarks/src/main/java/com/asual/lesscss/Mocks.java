@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet API stand-ins, built the same way as the precompiler's.
+ */
+public class Mocks {
+
+	private static final ServletOutputStream NULL_OUTPUT = new ServletOutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static ServletContext createContext(final File root) {
+		return proxy(ServletContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String name = method.getName();
+				if ("getResource".equals(name)) {
+					File file = new File(root, (String) args[0]);
+					return file.exists() ? file.toURI().toURL() : null;
+				}
+				if ("getRealPath".equals(name)) {
+					return new File(root, (String) args[0]).getAbsolutePath();
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	public static ServletConfig createConfig(final File root,
+			final Map<String, String> parameters) {
+		final ServletContext context = createContext(root);
+		return proxy(ServletConfig.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String name = method.getName();
+				if ("getServletContext".equals(name)) {
+					return context;
+				}
+				if ("getServletName".equals(name)) {
+					return "benchmark";
+				}
+				if ("getInitParameter".equals(name)) {
+					return parameters.get(args[0]);
+				}
+				if ("getInitParameterNames".equals(name)) {
+					return Collections.enumeration(parameters.keySet());
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	public static HttpServletRequest createRequest(final String pathInfo,
+			final Map<String, String> headers) {
+		return proxy(HttpServletRequest.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String name = method.getName();
+				if ("getPathInfo".equals(name) || "getRequestURI".equals(name)) {
+					return pathInfo;
+				}
+				if ("getContextPath".equals(name)
+						|| "getServletPath".equals(name)) {
+					return "";
+				}
+				if ("getMethod".equals(name)) {
+					return "GET";
+				}
+				if ("getHeader".equals(name)) {
+					return headers.get(args[0]);
+				}
+				if ("getDateHeader".equals(name)) {
+					return -1L;
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	public static HttpServletResponse createResponse() {
+		return proxy(HttpServletResponse.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				if ("getOutputStream".equals(method.getName())) {
+					return NULL_OUTPUT;
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(Mocks.class.getClassLoader(),
+				new Class<?>[] { type }, handler);
+	}
+
+	private static Object defaultValue(Object proxy, Method method,
+			Object[] args) {
+		String name = method.getName();
+		if ("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Package URL encoding and decoding, and merging of package members.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PackageBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int members;
+
+	private String[] uris;
+	private byte[] key;
+	private byte[] encoded;
+	private String path;
+	private byte[][] contents;
+	private ResourceServlet servlet;
+
+	@Setup
+	public void setup() throws Exception {
+		File root = Fixtures.createTempRoot();
+		uris = Fixtures.getScriptUris(members);
+		key = ("0\n" + StringUtils.join(uris, "\n")).getBytes("UTF-8");
+		encoded = PackageCodec.encode(key);
+		ResourcePackage rp = new ResourcePackage(uris);
+		rp.setExtension("js");
+		path = rp.toString();
+		contents = new byte[members][];
+		for (int i = 0; i < members; i++) {
+			contents[i] = ResourceUtils.readBinaryFile(new File(root, uris[i]));
+		}
+		servlet = new ResourceServlet();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return PackageCodec.encode(key);
+	}
+
+	@Benchmark
+	public byte[] decode() throws Exception {
+		return PackageCodec.decode(encoded);
+	}
+
+	@Benchmark
+	public ResourcePackage fromString() {
+		return ResourcePackage.fromString(path);
+	}
+
+	@Benchmark
+	public String toPath() {
+		ResourcePackage rp = new ResourcePackage(uris);
+		rp.setExtension("js");
+		return rp.toString();
+	}
+
+	@Benchmark
+	public byte[] merge() throws Exception {
+		return servlet.mergeContent(contents);
+	}
+
+	@Benchmark
+	public byte[] mergePairwise() throws Exception {
+		byte[] result = new byte[0];
+		for (byte[] content : contents) {
+			result = servlet.mergeContent(result, content);
+		}
+		return result;
+	}
+}
\ No newline at end of file
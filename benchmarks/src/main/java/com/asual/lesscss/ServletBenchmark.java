@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cache hit throughput of {@link ResourceServlet#service}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ServletBenchmark {
+
+	@Param({ "resource", "package" })
+	public String mode;
+
+	@Param({ "identity", "gzip" })
+	public String encoding;
+
+	private ResourceServlet servlet;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setup() throws Exception {
+		File root = Fixtures.createTempRoot();
+		servlet = new ResourceServlet();
+		servlet.init(Mocks.createConfig(root,
+				Collections.<String, String> emptyMap()));
+		String path = Fixtures.getScriptUri(1);
+		if ("package".equals(mode)) {
+			ResourcePackage rp = new ResourcePackage(Fixtures.getScriptUris(10));
+			rp.setExtension("js");
+			path = rp.toString();
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		if ("gzip".equals(encoding)) {
+			headers.put("Accept-Encoding", "gzip, deflate");
+		}
+		request = Mocks.createRequest(path, headers);
+		response = Mocks.createResponse();
+		servlet.service(request, response);
+	}
+
+	@TearDown
+	public void tearDown() {
+		servlet.destroy();
+	}
+
+	@Benchmark
+	public void service() throws Exception {
+		servlet.service(request, response);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+/**
+ * Store for compiled artifacts that the servlets consult before compiling a
+ * resource. Keys are derived from the content of the sources and from the
+ * compiler options, so an entry never has to be invalidated.
+ * <p>
+ * A <code>null</code> result from {@link #get} tells the caller to compile.
+ * Stores shared between nodes may block in {@link #get} while another node
+ * compiles the same key and may claim the key for the caller, who then either
+ * stores the result with {@link #put} or gives the claim up with
+ * {@link #release}. Custom implementations are configured with the
+ * <code>artifactStore</code> init-param and need a public constructor that
+ * takes the servlet options as a string.
+ */
+public interface ArtifactStore {
+
+	String getKey(String sourceKey);
+
+	ResourceContent get(String key, long lastModified);
+
+	void put(String key, ResourceContent content);
+
+	void release(String key);
+}
\ No newline at end of file
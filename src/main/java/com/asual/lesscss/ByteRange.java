@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single range of an HTTP <code>Range: bytes=...</code> header.
+ */
+public class ByteRange {
+
+	public static final int MAX_RANGES = 16;
+
+	private final long start;
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the satisfiable ranges, an empty list if none of them is
+	 *         satisfiable or <code>null</code> if the header is malformed and
+	 *         should be ignored
+	 */
+	public static List<ByteRange> parse(String header, long length) {
+		if (header == null || !header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> result = new ArrayList<ByteRange>();
+		try {
+			for (String spec : specs) {
+				spec = spec.trim();
+				int index = spec.indexOf('-');
+				if (index == -1) {
+					return null;
+				}
+				String first = spec.substring(0, index).trim();
+				String last = spec.substring(index + 1).trim();
+				long start;
+				long end;
+				if (first.length() == 0) {
+					long suffix = Long.parseLong(last);
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, length - suffix);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(first);
+					end = last.length() == 0 ? Long.MAX_VALUE : Long
+							.parseLong(last);
+					if (start < 0 || end < start) {
+						return null;
+					}
+					end = Math.min(end, length - 1);
+				}
+				if (start < length && start <= end) {
+					result.add(new ByteRange(start, end));
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return result;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	public String getContentRange(long length) {
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+}
\ No newline at end of file
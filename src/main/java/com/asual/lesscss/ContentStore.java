@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Off-heap tier for large content. Buffers at or above the threshold are
+ * copied into direct or memory-mapped buffers as long as the budget allows,
+ * everything else stays on the heap. Budget is returned once a stored buffer
+ * becomes unreachable.
+ */
+public class ContentStore {
+
+	public static final String DIRECT = "direct";
+	public static final String MAPPED = "mapped";
+
+	private static final Log logger = LogFactory.getLog(ContentStore.class);
+
+	private final long threshold;
+	private final long budget;
+	private final String type;
+	private final File directory;
+	private final AtomicLong used = new AtomicLong();
+	private final ReferenceQueue<ByteBuffer> queue = new ReferenceQueue<ByteBuffer>();
+	private final Set<Allocation> allocations = Collections
+			.newSetFromMap(new ConcurrentHashMap<Allocation, Boolean>());
+
+	public ContentStore(long threshold, long budget, String type,
+			File directory) {
+		this.threshold = threshold;
+		this.budget = budget;
+		this.type = type;
+		this.directory = directory;
+	}
+
+	public ByteBuffer store(ByteBuffer buffer) {
+		reclaim();
+		int size = buffer.remaining();
+		if (size < threshold || buffer.isDirect()) {
+			return buffer;
+		}
+		if (used.addAndGet(size) > budget) {
+			used.addAndGet(-size);
+			return buffer;
+		}
+		ByteBuffer result;
+		try {
+			result = MAPPED.equals(type) ? map(buffer) : ByteBuffer
+					.allocateDirect(size).put(buffer.duplicate());
+		} catch (IOException e) {
+			logger.error("Cannot map content, keeping it on the heap.", e);
+			used.addAndGet(-size);
+			return buffer;
+		} catch (OutOfMemoryError e) {
+			logger.error("Cannot allocate content, keeping it on the heap.", e);
+			used.addAndGet(-size);
+			return buffer;
+		}
+		result.rewind();
+		allocations.add(new Allocation(result, size, queue));
+		return result;
+	}
+
+	public long getUsed() {
+		reclaim();
+		return used.get();
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	private ByteBuffer map(ByteBuffer buffer) throws IOException {
+		File file = File.createTempFile("lesscss", ".bin", directory);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.write(buffer.duplicate(), 0);
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					buffer.remaining());
+		} finally {
+			raf.close();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	private void reclaim() {
+		Reference<? extends ByteBuffer> reference;
+		while ((reference = queue.poll()) != null) {
+			Allocation allocation = (Allocation) reference;
+			if (allocations.remove(allocation)) {
+				used.addAndGet(-allocation.size);
+			}
+		}
+	}
+
+	private static class Allocation extends PhantomReference<ByteBuffer> {
+
+		private final long size;
+
+		Allocation(ByteBuffer buffer, long size,
+				ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			this.size = size;
+		}
+	}
+}
\ No newline at end of file
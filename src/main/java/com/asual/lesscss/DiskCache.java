@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stores compiled content and its encoded variants on disk so that it
+ * survives restarts. Entries are keyed by a digest of the sources and the
+ * compiler options and are written atomically.
+ */
+public class DiskCache implements ArtifactStore {
+
+	private static final Log logger = LogFactory.getLog(DiskCache.class);
+
+	private final File directory;
+	private final String options;
+
+	public DiskCache(File directory, String options) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory + ".");
+		}
+		this.directory = directory;
+		this.options = options;
+	}
+
+	public String getKey(String sourceKey) {
+		return DigestUtils.md5Hex(options + "\n" + sourceKey);
+	}
+
+	public ResourceContent get(String key, long lastModified) {
+		File file = new File(directory, key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			byte[] content = ResourceUtils.readBinaryFile(file);
+			return new ResourceContent(content, read(key + "."
+					+ ResourceContent.GZIP), read(key + "."
+					+ ResourceContent.DEFLATE), lastModified);
+		} catch (IOException e) {
+			logger.error("Cannot read " + file + ".", e);
+			return null;
+		}
+	}
+
+	public void put(String key, ResourceContent content) {
+		try {
+			write(key + "." + ResourceContent.GZIP,
+					content.getVariant(ResourceContent.GZIP));
+			write(key + "." + ResourceContent.DEFLATE,
+					content.getVariant(ResourceContent.DEFLATE));
+			write(key, content.getContent());
+		} catch (IOException e) {
+			logger.error("Cannot write " + key + " to " + directory + ".", e);
+		}
+	}
+
+	public void release(String key) {
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private byte[] read(String name) throws IOException {
+		File file = new File(directory, name);
+		return file.isFile() ? ResourceUtils.readBinaryFile(file) : null;
+	}
+
+	private void write(String name, byte[] content) throws IOException {
+		if (content == null) {
+			return;
+		}
+		File temp = File.createTempFile(name, ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			File target = new File(directory, name);
+			try {
+				Files.move(temp.toPath(), target.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,228 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Dependency graph of LESS <code>@import</code> statements. Every file is
+ * parsed once and parsed again only when its own timestamp changes, so a
+ * freshness check is a walk over the cached timestamps. Once a watcher is set,
+ * only the files invalidated after its events are checked again, so the walk
+ * does not touch the file system at all.
+ */
+public class ImportGraph {
+
+	private static final Pattern IMPORT = Pattern
+			.compile("@import\\s+(\"[^\"]*\"|'[^']*')");
+
+	private final ServletContext servletContext;
+	private final String charset;
+	private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+	private final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<String, Set<String>>();
+	private volatile ResourceWatcher watcher;
+
+	public ImportGraph(ServletContext servletContext, String charset) {
+		this.servletContext = servletContext;
+		this.charset = charset;
+	}
+
+	public long getLastModified(String uri) throws IOException {
+		return walk(uri, watcher == null, new HashSet<String>());
+	}
+
+	public Set<String> getImports(String uri) throws IOException {
+		Set<String> result = new LinkedHashSet<String>();
+		collect(uri, result);
+		result.remove(uri);
+		return result;
+	}
+
+	public Set<String> getDependents(String uri) {
+		Set<String> result = new LinkedHashSet<String>();
+		List<String> queue = new ArrayList<String>();
+		queue.add(uri);
+		while (!queue.isEmpty()) {
+			Set<String> parents = dependents.get(queue.remove(0));
+			if (parents != null) {
+				for (String parent : parents) {
+					if (!parent.equals(uri) && result.add(parent)) {
+						queue.add(parent);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	public Set<String> getUris() {
+		return Collections.unmodifiableSet(nodes.keySet());
+	}
+
+	public Resource getResource(String uri) throws IOException {
+		return getNode(uri).resource;
+	}
+
+	public Path getSourcePath(String uri) {
+		Node node = nodes.get(uri);
+		return node != null ? node.resource.getSourcePath() : null;
+	}
+
+	public void setWatcher(ResourceWatcher watcher) {
+		this.watcher = watcher;
+		for (Node node : nodes.values()) {
+			watcher.register(node.resource.getSourcePath());
+		}
+	}
+
+	public void invalidate(String uri) {
+		Node node = nodes.get(uri);
+		if (node != null) {
+			node.modified = -1;
+		}
+	}
+
+	public void clear() {
+		nodes.clear();
+		dependents.clear();
+	}
+
+	private long walk(String uri, boolean refresh, Set<String> visited)
+			throws IOException {
+		if (!visited.add(uri)) {
+			return 0;
+		}
+		Node node = getNode(uri);
+		long result = refresh || node.modified == -1
+				|| node.resource.getSourcePath() == null ? node.refresh()
+				: node.modified;
+		for (String child : node.imports) {
+			result = Math.max(result, walk(child, refresh, visited));
+		}
+		return result;
+	}
+
+	private void collect(String uri, Set<String> result) throws IOException {
+		if (result.add(uri)) {
+			Node node = getNode(uri);
+			if (node.modified == -1) {
+				node.refresh();
+			}
+			for (String child : node.imports) {
+				collect(child, result);
+			}
+		}
+	}
+
+	private Node getNode(String uri) throws ResourceNotFoundException {
+		Node node = nodes.get(uri);
+		if (node == null) {
+			node = new Node(uri, new Resource(servletContext, uri, charset,
+					false));
+			Node existing = nodes.putIfAbsent(uri, node);
+			if (existing != null) {
+				node = existing;
+			} else if (watcher != null) {
+				watcher.register(node.resource.getSourcePath());
+			}
+		}
+		return node;
+	}
+
+	private void link(String parent, String[] previous, String[] current) {
+		for (String child : previous) {
+			Set<String> parents = dependents.get(child);
+			if (parents != null) {
+				parents.remove(parent);
+			}
+		}
+		for (String child : current) {
+			Set<String> parents = dependents.get(child);
+			if (parents == null) {
+				parents = Collections
+						.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				Set<String> existing = dependents.putIfAbsent(child, parents);
+				if (existing != null) {
+					parents = existing;
+				}
+			}
+			parents.add(parent);
+		}
+	}
+
+	private class Node {
+
+		private final String uri;
+		private final Resource resource;
+		private volatile long modified = -1;
+		private volatile String[] imports = new String[0];
+
+		Node(String uri, Resource resource) {
+			this.uri = uri;
+			this.resource = resource;
+		}
+
+		long refresh() throws IOException {
+			long current = resource.getLastModified();
+			if (current != modified) {
+				synchronized (this) {
+					if (current != modified) {
+						String[] previous = imports;
+						imports = parse();
+						link(uri, previous, imports);
+						modified = current;
+					}
+				}
+			}
+			return current;
+		}
+
+		private String[] parse() throws IOException {
+			String content = ResourceUtils.decodeText(
+					resource.resource instanceof URL ? ResourceUtils
+							.readBinaryUrl((URL) resource.resource)
+							: ResourceUtils
+									.readBinaryFile((File) resource.resource),
+					charset);
+			String folder = uri.substring(0, uri.lastIndexOf("/") + 1);
+			if (folder.length() == 0) {
+				folder = uri.substring(0, uri.lastIndexOf("\\") + 1);
+			}
+			List<String> result = new ArrayList<String>();
+			Matcher m = IMPORT.matcher(content);
+			while (m.find()) {
+				String child = folder + m.group(1).replaceAll("\"|'", "");
+				getNode(child);
+				result.add(child);
+			}
+			return result.toArray(new String[result.size()]);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of {@link LessEngine} instances. A Rhino engine must not be
+ * shared by concurrent compilations, so every compilation checks out its own
+ * engine. Engines are created on first demand unless the pool is eager, and
+ * an engine that failed unexpectedly can be discarded and is replaced by the
+ * next checkout.
+ */
+public class LessEnginePool {
+
+	private final LessOptions options;
+	private final int size;
+	private final Semaphore permits;
+	private final Queue<LessEngine> idle = new ConcurrentLinkedQueue<LessEngine>();
+	private final AtomicInteger created = new AtomicInteger();
+
+	public LessEnginePool(LessOptions options, int size, boolean eager) {
+		this.options = options;
+		this.size = Math.max(1, size);
+		this.permits = new Semaphore(this.size, true);
+		if (eager) {
+			for (int i = 0; i < this.size; i++) {
+				idle.offer(create());
+			}
+		}
+	}
+
+	public LessEngine borrow() throws InterruptedException {
+		permits.acquire();
+		LessEngine engine = null;
+		try {
+			engine = idle.poll();
+			if (engine == null) {
+				engine = create();
+			}
+			return engine;
+		} finally {
+			if (engine == null) {
+				permits.release();
+			}
+		}
+	}
+
+	public void release(LessEngine engine) {
+		idle.offer(engine);
+		permits.release();
+	}
+
+	public void discard(LessEngine engine) {
+		created.decrementAndGet();
+		permits.release();
+	}
+
+	public LessOptions getOptions() {
+		return options;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getCreated() {
+		return created.get();
+	}
+
+	public int getIdle() {
+		return idle.size();
+	}
+
+	protected LessEngine create() {
+		LessEngine engine = new LessEngine(options);
+		created.incrementAndGet();
+		return engine;
+	}
+}
\ No newline at end of file
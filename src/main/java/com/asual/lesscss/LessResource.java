@@ -20,8 +20,6 @@ import org.apache.commons.logging.LogFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.ServletContext;
 
@@ -32,75 +30,113 @@ public class LessResource extends StyleResource {
 
 	private final Log logger = LogFactory.getLog(getClass());
 	private LessEngine engine;
+	private LessEnginePool engines;
+	private ImportGraph imports;
 	private String originalUri;
 
 	public LessResource(LessEngine engine, ServletContext servletContext,
 			String uri, String charset, boolean cache, boolean compress)
 			throws ResourceNotFoundException {
+		this(engine, new ImportGraph(servletContext, charset),
+				servletContext, uri, charset, cache, compress);
+	}
+
+	public LessResource(LessEngine engine, ImportGraph imports,
+			ServletContext servletContext, String uri, String charset,
+			boolean cache, boolean compress) throws ResourceNotFoundException {
 		super(servletContext, uri, charset, cache, compress);
 		this.originalUri = uri;
 		this.engine = engine;
+		this.imports = imports;
 	}
 
-	public byte[] getContent() throws LessException, IOException {
-		if (content == null || (!cache && lastModified < getLastModified())) {
-			logger.debug("Not using cache.");
-			if (engine != null) {
-				logger.debug("LessEngine available, compiling.");
-				content = (resource instanceof URL ? engine
-						.compile((URL) resource) : engine
-						.compile((File) resource)).replaceAll("\\\\n", "\n")
-						.getBytes(charset);
-			} else {
-				logger.debug("LessEngine not available, treating as regular resource.");
-				content = resource instanceof URL ? ResourceUtils.readTextUrl(
-						(URL) resource, charset) : ResourceUtils.readTextFile(
-						(File) resource, charset);
-			}
-			lastModified = getLastModified();
-			if (compress) {
-				logger.debug("Compressing resource.");
-				compress();
+	public LessResource(LessEnginePool engines, ImportGraph imports,
+			ServletContext servletContext, String uri, String charset,
+			boolean cache, boolean compress) throws ResourceNotFoundException {
+		this((LessEngine) null, imports, servletContext, uri, charset, cache,
+				compress);
+		this.engines = engines;
+	}
+
+	protected byte[] load() throws Exception {
+		logger.debug("Not using cache.");
+		byte[] result;
+		if (engine != null || engines != null) {
+			logger.debug("LessEngine available, compiling.");
+			long start = metrics != null ? metrics.start() : 0;
+			result = compile().replaceAll("\\\\n", "\n").getBytes(charset);
+			if (metrics != null) {
+				metrics.record(ResourceMetrics.COMPILE, start);
 			}
 		} else {
-			logger.debug("Using cache, since lastModified: " + lastModified
-					+ " and getLastModified: " + getLastModified());
+			logger.debug("LessEngine not available, treating as regular resource.");
+			result = resource instanceof URL ? ResourceUtils.readTextUrl(
+					(URL) resource, charset) : ResourceUtils.readTextFile(
+					(File) resource, charset);
+		}
+		if (compress) {
+			logger.debug("Compressing resource.");
+			result = compress(result);
 		}
-		return content;
+		return result;
+	}
+
+	private String compile() throws Exception {
+		if (engines == null) {
+			return compile(engine);
+		}
+		LessEngine engine = engines.borrow();
+		try {
+			String result = compile(engine);
+			engines.release(engine);
+			return result;
+		} catch (LessException e) {
+			engines.release(engine);
+			throw e;
+		} catch (RuntimeException e) {
+			logger.debug("Discarding LessEngine after an unexpected error.");
+			engines.discard(engine);
+			throw e;
+		} catch (Error e) {
+			engines.discard(engine);
+			throw e;
+		}
+	}
+
+	private String compile(LessEngine engine) throws LessException {
+		return resource instanceof URL ? engine.compile((URL) resource)
+				: engine.compile((File) resource);
 	}
 
 	public long getLastModified() throws IOException {
 		if (lastModified == null || !cache) {
-			lastModified = super.getLastModified();
-			String content = new String(
-				resource instanceof URL
-					? ResourceUtils.readTextUrl((URL) resource, charset)
-					: ResourceUtils.readTextFile((File) resource, charset)
-			);
-			Pattern p = Pattern.compile("@import\\s+(\"[^\"]*\"|'[^']*')");
-			Matcher m = p.matcher(content);
-			String folder = this.originalUri.substring(0, this.originalUri.lastIndexOf("/") + 1);
-			if(folder == null || folder == ""){
-				folder = this.originalUri.substring(0, this.originalUri.lastIndexOf("\\") + 1);
-			}
-
-			while (m.find()) {
-				LessResource importedResource = new LessResource(
-						this.engine
-						, this.servletContext
-						, folder + m.group(1).replaceAll("\"|'", "")
-						, this.charset
-						, this.cache
-						, this.compress
-				);
-				long importedResourceLastModified = importedResource.getLastModified();
-				if (importedResourceLastModified > lastModified) {
-					lastModified = importedResourceLastModified;
-				}
+			long start = metrics != null ? metrics.start() : 0;
+			lastModified = imports.getLastModified(originalUri);
+			if (metrics != null) {
+				metrics.record(ResourceMetrics.FRESHNESS, start);
 			}
 		}
 		logger.debug("getLastModified() in LessResource: " + lastModified);
 		return lastModified;
 	}
 
+	protected String getSourceKey() throws IOException {
+		StringBuilder sb = new StringBuilder(super.getSourceKey());
+		for (String uri : imports.getImports(originalUri)) {
+			sb.append("\n");
+			sb.append(uri);
+			sb.append(":");
+			sb.append(imports.getResource(uri).getSourceDigest());
+		}
+		return sb.toString();
+	}
+
+	public String getUri() {
+		return originalUri;
+	}
+
+	public ImportGraph getImports() {
+		return imports;
+	}
+
 }
\ No newline at end of file
@@ -14,11 +14,16 @@
 
 package com.asual.lesscss;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 import javax.naming.NamingException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.javascript.jscomp.CompilationLevel;
+
 /**
  * @author Rostislav Hristov
  */
@@ -27,7 +32,11 @@ public class LessServlet extends ResourceServlet {
 	private static final long serialVersionUID = 413708886190444579L;
 	private final Log logger = LogFactory.getLog(getClass());
 
-	protected LessEngine engine;
+	protected LessEnginePool engines;
+	private LessEngine engine;
+	protected int enginePoolSize = Runtime.getRuntime().availableProcessors();
+	protected boolean enginePoolEager = false;
+	protected ImportGraph imports;
 	protected boolean css;
 	protected String lineNumbers;
 
@@ -42,12 +51,103 @@ public class LessServlet extends ResourceServlet {
 			if (getInitParameter("compress") != null) {
 				compress = Boolean.valueOf(getInitParameter("compress"));
 			}
+			if (getInitParameter("encode") != null) {
+				encode = Boolean.valueOf(getInitParameter("encode"));
+			}
+			if (getInitParameter("cacheSize") != null) {
+				cacheSize = Long.valueOf(getInitParameter("cacheSize"));
+			}
+			if (getInitParameter("cacheEntries") != null) {
+				cacheEntries = Integer.valueOf(getInitParameter("cacheEntries"));
+			}
+			if (getInitParameter("compilationLevel") != null) {
+				compilationLevel = CompilationLevel
+						.valueOf(getInitParameter("compilationLevel"));
+			}
+			if (getInitParameter("packageCompilation") != null) {
+				packageCompilation = Boolean
+						.valueOf(getInitParameter("packageCompilation"));
+			}
+			if (getInitParameter("packagePrefixes") != null) {
+				packagePrefixes = getInitParameter("packagePrefixes");
+			}
+			if (getInitParameter("compilerThreads") != null) {
+				compilerThreads = Boolean
+						.valueOf(getInitParameter("compilerThreads"));
+			}
+			if (getInitParameter("watch") != null) {
+				watch = Boolean.valueOf(getInitParameter("watch"));
+			}
+			if (getInitParameter("manifest") != null) {
+				manifest = getInitParameter("manifest");
+			}
+			if (getInitParameter("diskCache") != null) {
+				diskCachePath = getInitParameter("diskCache");
+			}
+			if (getInitParameter("sharedCache") != null) {
+				sharedCachePath = getInitParameter("sharedCache");
+			}
+			if (getInitParameter("sharedCacheTimeout") != null) {
+				sharedCacheTimeout = Long.valueOf(getInitParameter("sharedCacheTimeout"));
+			}
+			if (getInitParameter("sharedCacheStaleAge") != null) {
+				sharedCacheStaleAge = Long.valueOf(getInitParameter("sharedCacheStaleAge"));
+			}
+			if (getInitParameter("artifactStore") != null) {
+				artifactStoreClass = getInitParameter("artifactStore");
+			}
+			if (getInitParameter("async") != null) {
+				async = Boolean.valueOf(getInitParameter("async"));
+			}
+			if (getInitParameter("asyncThreads") != null) {
+				asyncThreads = Integer.valueOf(getInitParameter("asyncThreads"));
+			}
+			if (getInitParameter("asyncQueue") != null) {
+				asyncQueue = Integer.valueOf(getInitParameter("asyncQueue"));
+			}
+			if (getInitParameter("asyncTimeout") != null) {
+				asyncTimeout = Long.valueOf(getInitParameter("asyncTimeout"));
+			}
+			if (getInitParameter("streamThreshold") != null) {
+				streamThreshold = Long.valueOf(getInitParameter("streamThreshold"));
+			}
+			if (getInitParameter("offHeapThreshold") != null) {
+				offHeapThreshold = Long.valueOf(getInitParameter("offHeapThreshold"));
+			}
+			if (getInitParameter("offHeapBudget") != null) {
+				offHeapBudget = Long.valueOf(getInitParameter("offHeapBudget"));
+			}
+			if (getInitParameter("offHeapStorage") != null) {
+				offHeapStorage = getInitParameter("offHeapStorage");
+			}
+			if (getInitParameter("warmup") != null) {
+				warmup = getInitParameter("warmup");
+			}
+			if (getInitParameter("warmupWait") != null) {
+				warmupWait = Boolean.valueOf(getInitParameter("warmupWait"));
+			}
+			if (getInitParameter("jmx") != null) {
+				jmx = Boolean.valueOf(getInitParameter("jmx"));
+			}
+			if (getInitParameter("serverTiming") != null) {
+				serverTiming = Boolean.valueOf(getInitParameter("serverTiming"));
+			}
+			if (getInitParameter("timingLog") != null) {
+				timingLog = Boolean.valueOf(getInitParameter("timingLog"));
+			}
 			if (getInitParameter("css") != null) {
 				css = Boolean.valueOf(getInitParameter("css"));
 			}
 			if (getInitParameter("lineNumbers") != null) {
 				lineNumbers = getInitParameter("lineNumbers");
 			}
+			if (getInitParameter("enginePoolSize") != null) {
+				enginePoolSize = Integer.valueOf(getInitParameter("enginePoolSize"));
+			}
+			if (getInitParameter("enginePoolEager") != null) {
+				enginePoolEager = Boolean
+						.valueOf(getInitParameter("enginePoolEager"));
+			}
 		}
 		try {
 			initialContext = new javax.naming.InitialContext();
@@ -64,35 +164,189 @@ public class LessServlet extends ResourceServlet {
 			if (getJndiParameter("/less/Compress") != null) {
 				compress = (Boolean) getJndiParameter("/less/Compress");
 			}
+			if (getJndiParameter("/less/Encode") != null) {
+				encode = (Boolean) getJndiParameter("/less/Encode");
+			}
+			if (getJndiParameter("/less/CacheSize") != null) {
+				cacheSize = (Long) getJndiParameter("/less/CacheSize");
+			}
+			if (getJndiParameter("/less/CacheEntries") != null) {
+				cacheEntries = (Integer) getJndiParameter("/less/CacheEntries");
+			}
+			if (getJndiParameter("/less/CompilationLevel") != null) {
+				compilationLevel = CompilationLevel
+						.valueOf((String) getJndiParameter("/less/CompilationLevel"));
+			}
+			if (getJndiParameter("/less/PackageCompilation") != null) {
+				packageCompilation = (Boolean) getJndiParameter("/less/PackageCompilation");
+			}
+			if (getJndiParameter("/less/PackagePrefixes") != null) {
+				packagePrefixes = (String) getJndiParameter("/less/PackagePrefixes");
+			}
+			if (getJndiParameter("/less/CompilerThreads") != null) {
+				compilerThreads = (Boolean) getJndiParameter("/less/CompilerThreads");
+			}
+			if (getJndiParameter("/less/Watch") != null) {
+				watch = (Boolean) getJndiParameter("/less/Watch");
+			}
+			if (getJndiParameter("/less/Manifest") != null) {
+				manifest = (String) getJndiParameter("/less/Manifest");
+			}
+			if (getJndiParameter("/less/DiskCache") != null) {
+				diskCachePath = (String) getJndiParameter("/less/DiskCache");
+			}
+			if (getJndiParameter("/less/SharedCache") != null) {
+				sharedCachePath = (String) getJndiParameter("/less/SharedCache");
+			}
+			if (getJndiParameter("/less/SharedCacheTimeout") != null) {
+				sharedCacheTimeout = (Long) getJndiParameter("/less/SharedCacheTimeout");
+			}
+			if (getJndiParameter("/less/SharedCacheStaleAge") != null) {
+				sharedCacheStaleAge = (Long) getJndiParameter("/less/SharedCacheStaleAge");
+			}
+			if (getJndiParameter("/less/ArtifactStore") != null) {
+				artifactStoreClass = (String) getJndiParameter("/less/ArtifactStore");
+			}
+			if (getJndiParameter("/less/Async") != null) {
+				async = (Boolean) getJndiParameter("/less/Async");
+			}
+			if (getJndiParameter("/less/AsyncThreads") != null) {
+				asyncThreads = (Integer) getJndiParameter("/less/AsyncThreads");
+			}
+			if (getJndiParameter("/less/AsyncQueue") != null) {
+				asyncQueue = (Integer) getJndiParameter("/less/AsyncQueue");
+			}
+			if (getJndiParameter("/less/AsyncTimeout") != null) {
+				asyncTimeout = (Long) getJndiParameter("/less/AsyncTimeout");
+			}
+			if (getJndiParameter("/less/StreamThreshold") != null) {
+				streamThreshold = (Long) getJndiParameter("/less/StreamThreshold");
+			}
+			if (getJndiParameter("/less/OffHeapThreshold") != null) {
+				offHeapThreshold = (Long) getJndiParameter("/less/OffHeapThreshold");
+			}
+			if (getJndiParameter("/less/OffHeapBudget") != null) {
+				offHeapBudget = (Long) getJndiParameter("/less/OffHeapBudget");
+			}
+			if (getJndiParameter("/less/OffHeapStorage") != null) {
+				offHeapStorage = (String) getJndiParameter("/less/OffHeapStorage");
+			}
+			if (getJndiParameter("/less/Warmup") != null) {
+				warmup = (String) getJndiParameter("/less/Warmup");
+			}
+			if (getJndiParameter("/less/WarmupWait") != null) {
+				warmupWait = (Boolean) getJndiParameter("/less/WarmupWait");
+			}
+			if (getJndiParameter("/less/Jmx") != null) {
+				jmx = (Boolean) getJndiParameter("/less/Jmx");
+			}
+			if (getJndiParameter("/less/ServerTiming") != null) {
+				serverTiming = (Boolean) getJndiParameter("/less/ServerTiming");
+			}
+			if (getJndiParameter("/less/TimingLog") != null) {
+				timingLog = (Boolean) getJndiParameter("/less/TimingLog");
+			}
 			if (getJndiParameter("/less/Css") != null) {
 				css = (Boolean) getJndiParameter("/less/Css");
 			}
 			if (getJndiParameter("/less/LineNumbers") != null) {
 				lineNumbers = (String) getJndiParameter("/less/LineNumbers");
 			}
+			if (getJndiParameter("/less/EnginePoolSize") != null) {
+				enginePoolSize = (Integer) getJndiParameter("/less/EnginePoolSize");
+			}
+			if (getJndiParameter("/less/EnginePoolEager") != null) {
+				enginePoolEager = (Boolean) getJndiParameter("/less/EnginePoolEager");
+			}
 		}
 		LessOptions options = new LessOptions();
 		options.setCharset(charset);
 		options.setCss(css);
 		options.setLineNumbers(lineNumbers);
 		options.setOptimization(cache ? 3 : 0);
-		engine = new LessEngine(options);
+		engines = new LessEnginePool(options, enginePoolSize, enginePoolEager);
+		imports = new ImportGraph(getServletContext(), charset);
+		initCaches();
+		initMetrics();
+		initAttribute();
+		initPackagePrefixes();
+		initCompressors();
+		initWatcher();
+		if (watcher != null) {
+			imports.setWatcher(watcher);
+		}
+		initManifest();
+		initArtifactStore();
+		initExecutor();
+		initWarmup();
+	}
+
+	/**
+	 * @deprecated compilations check their engines out of {@link #engines};
+	 *             this engine is kept for subclasses that used the former
+	 *             <code>engine</code> field and is shared by all its callers
+	 */
+	@Deprecated
+	protected synchronized LessEngine getEngine() {
+		if (engine == null) {
+			engine = new LessEngine(engines.getOptions());
+		}
+		return engine;
+	}
+
+	protected String getOptions() {
+		return super.getOptions() + ";css=" + css + ";lineNumbers="
+				+ lineNumbers;
+	}
+
+	protected void invalidate(Path path) {
+		for (String uri : imports.getUris()) {
+			if (path == null || path.equals(imports.getSourcePath(uri))) {
+				imports.invalidate(uri);
+				for (String dependent : imports.getDependents(uri)) {
+					invalidate(dependent);
+				}
+			}
+		}
+		super.invalidate(path);
+	}
+
+	protected Path getSourcePath(String uri) {
+		Path path = imports.getSourcePath(uri);
+		return path != null ? path : super.getSourcePath(uri);
+	}
+
+	protected boolean isWatched(String uri, Resource resource) {
+		if (!super.isWatched(uri, resource)) {
+			return false;
+		}
+		if (resource instanceof LessResource) {
+			try {
+				for (String dependency : imports.getImports(uri)) {
+					if (imports.getSourcePath(dependency) == null) {
+						return false;
+					}
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	protected Resource getResource(String uri) throws ResourceNotFoundException {
 		String mimeType = getResourceMimeType(uri);
-		if (!resources.containsKey(uri)) {
+		if (!"text/css".equals(mimeType)) {
+			return super.getResource(uri);
+		}
+		Resource resource = resources.touch(uri);
+		if (resource == null) {
 			logger.debug("Using new LessResource for uri " + uri);
-			if ("text/css".equals(mimeType)) {
-				resources.put(uri, new LessResource(engine,
-						getServletContext(), uri, charset, cache, compress));
-				return resources.get(uri);
-			} else {
-				return super.getResource(uri);
-			}
+			resource = register(uri, new LessResource(engines, imports,
+					getServletContext(), uri, charset, isCached(), compress));
 		} else {
 			logger.debug("Using existing LessResource for uri " + uri);
-			return resources.get(uri);
 		}
+		return resource;
 	}
 }
\ No newline at end of file
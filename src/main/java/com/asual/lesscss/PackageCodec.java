@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses package keys for use in URLs. Version 3 keys are raw deflate
+ * streams primed with a dictionary of common path fragments, prefixed with a
+ * version byte and two bytes identifying the dictionary. The built-in
+ * fragments are part of the URL format; applications can append their own
+ * path prefixes with the <code>packagePrefixes</code> init-param, and a key
+ * encoded with other prefixes is rejected instead of being decoded wrongly.
+ * Keys written by earlier versions, which are version 2, plain or zlib
+ * wrapped, are still decoded.
+ */
+public class PackageCodec {
+
+	public static final byte VERSION = 3;
+	public static final String DICTIONARY = "\n/META-INF/resources/"
+			+ "\n/resources/\n/static/\n/assets/\n/scripts/\n/styles/\n/less/"
+			+ "\n/lib/\n.min.js\n.less\n.css\n.js\n/js/\n/css/\n";
+
+	private static final byte LEGACY_VERSION = 2;
+	private static final byte[] LEGACY_DICTIONARY = bytes("\n/WEB-INF/"
+			+ DICTIONARY);
+	private static final Dictionary DEFAULT_DICTIONARY = new Dictionary(
+			DICTIONARY);
+
+	private static final int MIN_LENGTH = 32;
+	private static final int MAX_LENGTH = 64 * 1024;
+	private static final int POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	private static final AtomicInteger deflaterCount = new AtomicInteger();
+	private static final AtomicInteger inflaterCount = new AtomicInteger();
+	private static volatile Dictionary dictionary = DEFAULT_DICTIONARY;
+
+	private PackageCodec() {
+	}
+
+	static synchronized void setPrefixes(String... prefixes) {
+		StringBuilder sb = new StringBuilder(DICTIONARY);
+		for (String prefix : prefixes) {
+			sb.append(prefix);
+			sb.append("\n");
+		}
+		dictionary = new Dictionary(sb.toString());
+	}
+
+	public static byte[] encode(byte[] input) {
+		if (input.length < MIN_LENGTH) {
+			return input;
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater != null) {
+			deflaterCount.decrementAndGet();
+		} else {
+			deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		}
+		Dictionary current = dictionary;
+		try {
+			deflater.setDictionary(current.bytes);
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(
+					input.length);
+			baos.write(VERSION);
+			baos.write(current.id >> 8);
+			baos.write(current.id);
+			byte[] buf = new byte[1024];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buf);
+				baos.write(buf, 0, count);
+			}
+			byte[] result = baos.toByteArray();
+			return result.length < input.length ? result : input;
+		} finally {
+			release(deflater);
+		}
+	}
+
+	public static byte[] decode(byte[] input) throws DataFormatException {
+		if (input.length == 0) {
+			return input;
+		}
+		if (input[0] == VERSION) {
+			if (input.length < 3) {
+				throw new DataFormatException("Truncated input.");
+			}
+			int id = (input[1] & 0xff) << 8 | input[2] & 0xff;
+			Dictionary current = dictionary;
+			if (id == current.id) {
+				return inflate(current.bytes, input, 3);
+			}
+			if (id == DEFAULT_DICTIONARY.id) {
+				return inflate(DEFAULT_DICTIONARY.bytes, input, 3);
+			}
+			throw new DataFormatException(
+					"Package was encoded with a different dictionary.");
+		}
+		if (input[0] == LEGACY_VERSION) {
+			return inflate(LEGACY_DICTIONARY, input, 1);
+		}
+		if (input[0] >= '0' && input[0] <= '9') {
+			return input;
+		}
+		Inflater inflater = new Inflater();
+		try {
+			return inflate(inflater, input);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] dictionary, byte[] input, int offset)
+			throws DataFormatException {
+		// nowrap inflaters expect an extra dummy byte after the stream
+		byte[] data = new byte[input.length - offset + 1];
+		System.arraycopy(input, offset, data, 0, input.length - offset);
+		Inflater inflater = inflaters.poll();
+		if (inflater != null) {
+			inflaterCount.decrementAndGet();
+		} else {
+			inflater = new Inflater(true);
+		}
+		try {
+			inflater.setDictionary(dictionary);
+			return inflate(inflater, data);
+		} finally {
+			release(inflater);
+		}
+	}
+
+	private static byte[] inflate(Inflater inflater, byte[] input)
+			throws DataFormatException {
+		inflater.setInput(input);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(
+				input.length * 4);
+		byte[] buf = new byte[1024];
+		while (!inflater.finished()) {
+			int count = inflater.inflate(buf);
+			if (count == 0
+					&& (inflater.needsInput() || inflater.needsDictionary())) {
+				throw new DataFormatException("Truncated input.");
+			}
+			if (baos.size() + count > MAX_LENGTH) {
+				throw new DataFormatException("Package is too large.");
+			}
+			baos.write(buf, 0, count);
+		}
+		return baos.toByteArray();
+	}
+
+	private static void release(Deflater deflater) {
+		deflater.reset();
+		if (deflaterCount.incrementAndGet() <= POOL_SIZE) {
+			deflaters.offer(deflater);
+		} else {
+			deflaterCount.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private static void release(Inflater inflater) {
+		inflater.reset();
+		if (inflaterCount.incrementAndGet() <= POOL_SIZE) {
+			inflaters.offer(inflater);
+		} else {
+			inflaterCount.decrementAndGet();
+			inflater.end();
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Dictionary {
+
+		final byte[] bytes;
+		final int id;
+
+		Dictionary(String value) {
+			bytes = bytes(value);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			id = (int) crc.getValue() & 0xffff;
+		}
+	}
+}
\ No newline at end of file
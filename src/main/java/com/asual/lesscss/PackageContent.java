@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assembled package payload together with the timestamps of the members it
+ * was built from.
+ */
+public class PackageContent {
+
+	private final ResourceContent content;
+	private final String mimeType;
+	private final long[] modified;
+	private final long loadTime;
+	private final AtomicLong hits = new AtomicLong();
+
+	public PackageContent(ResourceContent content, String mimeType,
+			long[] modified) {
+		this(content, mimeType, modified, 0);
+	}
+
+	public PackageContent(ResourceContent content, String mimeType,
+			long[] modified, long loadTime) {
+		this.content = content;
+		this.mimeType = mimeType;
+		this.modified = modified.clone();
+		this.loadTime = loadTime;
+	}
+
+	public ResourceContent getContent() {
+		return content;
+	}
+
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	public long getLastModified() {
+		return content.getLastModified();
+	}
+
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public void hit() {
+		hits.incrementAndGet();
+	}
+
+	public boolean isValid(long[] modified) {
+		return Arrays.equals(this.modified, modified);
+	}
+}
\ No newline at end of file
@@ -18,9 +18,15 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletContext;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -34,8 +40,24 @@ public class Resource {
 	protected Object resource;
 	protected String charset;
 	protected boolean cache;
-	protected byte[] content;
-	protected Long lastModified;
+	protected volatile byte[] content;
+	protected volatile long contentModified;
+	protected volatile ResourceContent encodedContent;
+	protected volatile Long lastModified;
+	protected volatile boolean stale;
+	protected ArtifactStore artifactStore;
+	protected ContentStore contentStore;
+	protected ResourceMetrics metrics;
+	private volatile int version;
+	private volatile int encodedVersion;
+	private boolean encode = true;
+	private volatile long loadTime;
+	private final AtomicLong hits = new AtomicLong();
+	private Path sourcePath;
+	private File sourceFile;
+	private volatile long sourceLength = -1;
+	private volatile long sourceLengthModified;
+	private FutureTask<Object> compilation;
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -59,17 +81,208 @@ public class Resource {
 	}
 
 	public byte[] getContent() throws Exception {
-		if (content == null || (!cache && lastModified < getLastModified())) {
-			content = resource instanceof URL ? ResourceUtils
-					.readBinaryUrl((URL) resource) : ResourceUtils
-					.readBinaryFile((File) resource);
-			lastModified = getLastModified();
+		refresh();
+		synchronized (this) {
+			return content != null ? content : encodedContent.getContent();
 		}
-		return content;
+	}
+
+	private void refresh() throws Exception {
+		if (version == 0 || stale
+				|| (!cache && contentModified < getLastModified())) {
+			FutureTask<Object> task;
+			boolean owner = false;
+			synchronized (this) {
+				task = compilation;
+				if (task == null) {
+					task = new FutureTask<Object>(new Callable<Object>() {
+						public Object call() throws Exception {
+							reload();
+							return null;
+						}
+					});
+					compilation = task;
+					owner = true;
+				}
+			}
+			if (owner) {
+				try {
+					task.run();
+				} finally {
+					synchronized (this) {
+						compilation = null;
+					}
+				}
+			} else if (version != 0) {
+				logger.debug("Compilation in progress, using previous content.");
+				return;
+			}
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw (Exception) cause;
+			}
+		}
+	}
+
+	protected byte[] load() throws Exception {
+		return resource instanceof URL ? ResourceUtils
+				.readBinaryUrl((URL) resource) : ResourceUtils
+				.readBinaryFile((File) resource);
+	}
+
+	private void reload() throws Exception {
+		stale = false;
+		long modified = getLastModified();
+		byte[] result = null;
+		String key = null;
+		ResourceContent stored = null;
+		if (artifactStore != null) {
+			String sourceKey = getSourceKey();
+			if (sourceKey != null) {
+				key = artifactStore.getKey(sourceKey);
+				stored = artifactStore.get(key, modified);
+			}
+		}
+		if (stored != null) {
+			logger.debug("Using stored artifact for " + path + ".");
+		} else {
+			long start = System.nanoTime();
+			boolean loaded = false;
+			try {
+				result = load();
+				loadTime = (System.nanoTime() - start) / 1000000;
+				if (key != null) {
+					stored = new ResourceContent(result, encode, modified);
+					artifactStore.put(key, stored);
+				}
+				loaded = true;
+			} finally {
+				if (key != null && !loaded) {
+					artifactStore.release(key);
+				}
+			}
+		}
+		if (stored != null) {
+			stored = stored.store(contentStore);
+		}
+		synchronized (this) {
+			lastModified = modified;
+			contentModified = modified;
+			version++;
+			if (stored != null) {
+				encodedContent = stored;
+				encodedVersion = version;
+				content = stored.isDirect() ? null : stored.getContent();
+			} else {
+				content = result;
+			}
+		}
+	}
+
+	/**
+	 * Returns the key under which the compiled form of this resource is kept
+	 * in the artifact store, or <code>null</code> if there is nothing worth
+	 * storing because the content is served as it is.
+	 */
+	protected String getSourceKey() throws IOException {
+		return null;
+	}
+
+	protected String getSourceDigest() throws IOException {
+		return getClass().getName()
+				+ ":"
+				+ DigestUtils.md5Hex(resource instanceof URL ? ResourceUtils
+						.readBinaryUrl((URL) resource) : ResourceUtils
+						.readBinaryFile((File) resource));
+	}
+
+	public void setArtifactStore(ArtifactStore artifactStore) {
+		this.artifactStore = artifactStore;
+	}
+
+	public void setContentStore(ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
+
+	public void setMetrics(ResourceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setCache(boolean cache) {
+		this.cache = cache;
+	}
+
+	public void setEncode(boolean encode) {
+		this.encode = encode;
+	}
+
+	public ResourceContent getEncodedContent(boolean encode) throws Exception {
+		refresh();
+		byte[] bytes;
+		int current;
+		long modified;
+		synchronized (this) {
+			if (encodedContent != null && encodedVersion == version) {
+				hits.incrementAndGet();
+				return encodedContent;
+			}
+			bytes = content;
+			current = version;
+			modified = contentModified;
+		}
+		ResourceContent result = new ResourceContent(bytes, encode, modified)
+				.store(contentStore);
+		synchronized (this) {
+			if (version == current) {
+				encodedContent = result;
+				encodedVersion = current;
+				if (result.isDirect()) {
+					content = null;
+				}
+			}
+		}
+		return result;
+	}
+
+	public ResourceContent peekEncodedContent(long lastModified) {
+		ResourceContent result = encodedContent;
+		if (result != null && !stale && encodedVersion == version
+				&& contentModified == lastModified) {
+			hits.incrementAndGet();
+			return result;
+		}
+		return null;
+	}
+
+	public long getSize() {
+		ResourceContent result = encodedContent;
+		if (result != null) {
+			return result.getSize();
+		}
+		byte[] bytes = content;
+		return bytes != null ? bytes.length : 0;
+	}
+
+	public long getContentModified() {
+		return contentModified;
+	}
+
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	public long getHits() {
+		return hits.get();
 	}
 
 	public long getLastModified() throws IOException {
 		if (lastModified == null || !cache) {
+			long start = metrics != null ? metrics.start() : 0;
 			if (resource instanceof URL) {
 				lastModified = ((URL) resource).openConnection()
 						.getLastModified();
@@ -80,11 +293,52 @@ public class Resource {
 				logger.debug("getLastModified(), File resource: "
 						+ lastModified + " - for resource: " + resource);
 			}
+			if (metrics != null) {
+				metrics.record(ResourceMetrics.FRESHNESS, start);
+			}
 		}
 		logger.debug("getLastModified(): " + lastModified);
 		return lastModified;
 	}
 
+	public void invalidate() {
+		lastModified = null;
+		stale = true;
+	}
+
+	public Path getSourcePath() {
+		if (sourcePath == null) {
+			sourcePath = ResourceWatcher.getPath(resource);
+		}
+		return sourcePath;
+	}
+
+	public File getSourceFile() {
+		if (resource instanceof File) {
+			return (File) resource;
+		}
+		if (sourceFile == null) {
+			URL url = (URL) resource;
+			if ("file".equals(url.getProtocol())) {
+				try {
+					sourceFile = new File(url.toURI());
+				} catch (Exception e) {
+				}
+			}
+		}
+		return sourceFile;
+	}
+
+	public long getSourceLength() throws IOException {
+		long modified = getLastModified();
+		if (sourceLength == -1 || sourceLengthModified != modified) {
+			File file = getSourceFile();
+			sourceLengthModified = modified;
+			sourceLength = file != null ? file.length() : 0;
+		}
+		return sourceLength;
+	}
+
 	protected URL getUrl(String path) {
 		try {
 			URL url = servletContext.getResource("/META-INF" + path);
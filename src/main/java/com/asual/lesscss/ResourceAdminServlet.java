@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lists the entries cached by the resource servlets of the web application
+ * and invalidates or recompiles them on demand. Every request has to carry
+ * the configured <code>token</code> either in the <code>X-Token</code> header
+ * or as a request parameter.
+ *
+ * <pre>
+ * GET  ?servlet=less
+ * POST ?action=invalidate&amp;uri=/css/style.css
+ * POST ?action=invalidate&amp;file=/css/mixins.less
+ * POST ?action=invalidate
+ * POST ?action=recompile[&amp;uri=/css/style.css ...]
+ * </pre>
+ */
+public class ResourceAdminServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 413708886190444579L;
+	private final Log logger = LogFactory.getLog(getClass());
+	protected Context initialContext = null;
+	protected String token;
+	protected String servlet;
+
+	public void init() {
+		if (getServletConfig() != null) {
+			if (getInitParameter("token") != null) {
+				token = getInitParameter("token");
+			}
+			if (getInitParameter("servlet") != null) {
+				servlet = getInitParameter("servlet");
+			}
+		}
+		try {
+			initialContext = new javax.naming.InitialContext();
+		} catch (NamingException e) {
+		} catch (NoClassDefFoundError e) {
+		}
+		if (initialContext != null) {
+			if (getJndiParameter("/admin/Token") != null) {
+				token = (String) getJndiParameter("/admin/Token");
+			}
+			if (getJndiParameter("/admin/Servlet") != null) {
+				servlet = (String) getJndiParameter("/admin/Servlet");
+			}
+		}
+		if (token == null || token.length() == 0) {
+			logger.warn("No token is configured, all requests will be rejected.");
+		}
+	}
+
+	protected Object getJndiParameter(String name) {
+		try {
+			return initialContext.lookup("java:comp/env" + name);
+		} catch (NamingException ne) {
+		}
+		return null;
+	}
+
+	protected boolean isAuthorized(HttpServletRequest request) {
+		if (token == null || token.length() == 0) {
+			return false;
+		}
+		String value = request.getHeader("X-Token");
+		if (value == null) {
+			value = request.getParameter("token");
+		}
+		try {
+			return value != null
+					&& MessageDigest.isEqual(token.getBytes("UTF-8"),
+							value.getBytes("UTF-8"));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	protected Map<String, ResourceServlet> getServlets(
+			HttpServletRequest request) {
+		String name = request.getParameter("servlet");
+		if (name == null) {
+			name = servlet;
+		}
+		Map<String, ResourceServlet> result = new LinkedHashMap<String, ResourceServlet>();
+		Enumeration<String> names = getServletContext().getAttributeNames();
+		while (names.hasMoreElements()) {
+			String attribute = names.nextElement();
+			if (attribute.startsWith(ResourceServlet.ATTRIBUTE)) {
+				String servletName = attribute
+						.substring(ResourceServlet.ATTRIBUTE.length());
+				if (name == null || name.equals(servletName)) {
+					result.put(servletName, (ResourceServlet) getServletContext()
+							.getAttribute(attribute));
+				}
+			}
+		}
+		return result;
+	}
+
+	protected void doGet(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (!isAuthorized(request)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		response.setContentType("text/plain;charset=UTF-8");
+		response.setHeader("Cache-control", "no-cache");
+		PrintWriter out = response.getWriter();
+		for (Map.Entry<String, ResourceServlet> entry : getServlets(request)
+				.entrySet()) {
+			out.println("# " + entry.getKey());
+			list(entry.getValue(), out);
+		}
+		out.close();
+	}
+
+	protected void list(ResourceServlet servlet, PrintWriter out) {
+		for (String uri : servlet.resources.keySet()) {
+			Resource resource = servlet.resources.peek(uri);
+			if (resource == null) {
+				continue;
+			}
+			String imports = "";
+			if (resource instanceof LessResource) {
+				try {
+					imports = StringUtils.join(((LessResource) resource)
+							.getImports().getImports(uri), ",");
+				} catch (IOException e) {
+					logger.debug(e.getMessage(), e);
+				}
+			}
+			out.println("resource\t" + uri + "\tsize=" + resource.getSize()
+					+ "\tloadTime=" + resource.getLoadTime()
+					+ "\tlastModified=" + resource.getContentModified()
+					+ "\thits=" + resource.getHits() + "\timports=" + imports);
+		}
+		for (ResourcePackage rp : servlet.packages.keySet()) {
+			PackageContent content = servlet.packages.peek(rp);
+			if (content == null) {
+				continue;
+			}
+			out.println("package\t"
+					+ StringUtils.join(rp.getResources(), ",") + "\tsize="
+					+ content.getContent().getSize() + "\tloadTime="
+					+ content.getLoadTime() + "\tlastModified="
+					+ content.getLastModified() + "\thits="
+					+ content.getHits());
+		}
+	}
+
+	protected void doPost(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		if (!isAuthorized(request)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		String action = request.getParameter("action");
+		String[] uris = request.getParameterValues("uri");
+		String[] files = request.getParameterValues("file");
+		Map<String, ResourceServlet> servlets = getServlets(request);
+		if ("invalidate".equals(action)) {
+			for (ResourceServlet servlet : servlets.values()) {
+				if (uris == null && files == null) {
+					servlet.invalidateAll();
+					continue;
+				}
+				if (uris != null) {
+					for (String uri : uris) {
+						servlet.invalidate(uri);
+					}
+				}
+				if (files != null) {
+					for (String file : files) {
+						Path path = servlet.getSourcePath(file);
+						if (path != null) {
+							servlet.invalidate(path);
+						} else {
+							servlet.invalidate(file);
+						}
+					}
+				}
+			}
+			logger.info("Invalidated "
+					+ (uris == null && files == null ? "all resources"
+							: StringUtils.join(ArrayUtils.addAll(uris, files),
+									", ")) + ".");
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		} else if ("recompile".equals(action)) {
+			for (ResourceServlet servlet : servlets.values()) {
+				List<String> paths = uris != null ? Arrays.asList(uris)
+						: new ArrayList<String>(servlet.resources.keySet());
+				servlet.recompile(paths);
+			}
+			response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		} else {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Unknown action: " + action);
+		}
+	}
+}
\ No newline at end of file
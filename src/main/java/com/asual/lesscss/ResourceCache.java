@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache bounded by entry count and by a total weight, usually the
+ * number of compiled bytes held by the entries. Reads are lock-free and the
+ * least recently used entries are evicted once either limit is exceeded.
+ */
+public class ResourceCache<K, V> {
+
+	private final ConcurrentHashMap<K, Entry<V>> map;
+	private final long maxWeight;
+	private final int maxEntries;
+	private final AtomicLong weight = new AtomicLong();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter evictions = new StripedCounter();
+
+	public ResourceCache(long maxWeight, int maxEntries) {
+		this.maxWeight = maxWeight;
+		this.maxEntries = maxEntries;
+		this.map = new ConcurrentHashMap<K, Entry<V>>(Math.min(maxEntries,
+				1024), 0.75f, Runtime.getRuntime().availableProcessors());
+	}
+
+	public V get(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		entry.touch();
+		return entry.value;
+	}
+
+	/**
+	 * Returns the value and marks it as recently used without counting a hit
+	 * or a miss, for repeated lookups of a key already counted by
+	 * {@link #get(Object)}.
+	 */
+	public V touch(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.touch();
+		return entry.value;
+	}
+
+	public V peek(K key) {
+		Entry<V> entry = map.get(key);
+		return entry != null ? entry.value : null;
+	}
+
+	public boolean containsKey(K key) {
+		return map.containsKey(key);
+	}
+
+	public void put(K key, V value) {
+		put(key, value, 0);
+	}
+
+	public void put(K key, V value, long weight) {
+		Entry<V> entry = new Entry<V>(value, weight);
+		this.weight.addAndGet(weight);
+		Entry<V> previous = map.put(key, entry);
+		if (previous != null) {
+			release(previous);
+		}
+		evict();
+	}
+
+	public V putIfAbsent(K key, V value) {
+		Entry<V> entry = new Entry<V>(value, 0);
+		Entry<V> previous = map.putIfAbsent(key, entry);
+		if (previous != null) {
+			previous.touch();
+			return previous.value;
+		}
+		evict();
+		return null;
+	}
+
+	public void setWeight(K key, long weight) {
+		Entry<V> entry = map.get(key);
+		if (entry != null && entry.weight != weight) {
+			synchronized (entry) {
+				if (!entry.removed) {
+					this.weight.addAndGet(weight - entry.weight);
+					entry.weight = weight;
+				}
+			}
+			evict();
+		}
+	}
+
+	public V remove(K key) {
+		Entry<V> entry = map.remove(key);
+		if (entry != null) {
+			release(entry);
+			return entry.value;
+		}
+		return null;
+	}
+
+	public void clear() {
+		for (K key : map.keySet()) {
+			remove(key);
+		}
+	}
+
+	public Set<K> keySet() {
+		return map.keySet();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public long getWeight() {
+		return weight.get();
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private void release(Entry<V> entry) {
+		synchronized (entry) {
+			entry.removed = true;
+			weight.addAndGet(-entry.weight);
+		}
+	}
+
+	private boolean exceeds(long weight, int entries) {
+		return this.weight.get() > weight || map.size() > entries;
+	}
+
+	private void evict() {
+		if (!exceeds(maxWeight, maxEntries) || !evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			List<Candidate<K, V>> candidates = new ArrayList<Candidate<K, V>>(
+					map.size());
+			for (Map.Entry<K, Entry<V>> e : map.entrySet()) {
+				candidates.add(new Candidate<K, V>(e.getKey(), e.getValue()));
+			}
+			Collections.sort(candidates);
+			long lowWeight = maxWeight - maxWeight / 10;
+			int lowEntries = maxEntries - maxEntries / 10;
+			for (Candidate<K, V> candidate : candidates) {
+				if (!exceeds(lowWeight, lowEntries)) {
+					break;
+				}
+				if (map.remove(candidate.key, candidate.entry)) {
+					release(candidate.entry);
+					evictions.increment();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+		volatile long weight;
+		volatile long accessed;
+		boolean removed;
+
+		Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+			this.accessed = System.nanoTime();
+		}
+
+		void touch() {
+			long now = System.nanoTime();
+			// Skip the write for entries hit within the last millisecond so
+			// hot keys don't keep invalidating the cache line across cores.
+			if (now - accessed > 1000000L) {
+				accessed = now;
+			}
+		}
+	}
+
+	private static class Candidate<K, V> implements
+			Comparable<Candidate<K, V>> {
+
+		final K key;
+		final Entry<V> entry;
+		final long accessed;
+
+		Candidate(K key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+			this.accessed = entry.accessed;
+		}
+
+		public int compareTo(Candidate<K, V> o) {
+			return accessed < o.accessed ? -1 : (accessed == o.accessed ? 0
+					: 1);
+		}
+	}
+}
\ No newline at end of file
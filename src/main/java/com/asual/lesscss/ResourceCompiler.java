@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+
+/**
+ * Build-time precompiler. Resolves resources the same way the servlets do,
+ * compiles and minifies them and writes the artifacts together with a
+ * manifest that the servlets can serve from using the <code>manifest</code>
+ * init-param.
+ *
+ * <pre>
+ * java com.asual.lesscss.ResourceCompiler [-less] [-param=value ...] \
+ *     &lt;webapp directory&gt; &lt;output directory&gt; &lt;path&gt; ...
+ * </pre>
+ */
+public class ResourceCompiler {
+
+	public static final String MANIFEST = "META-INF/lesscss/manifest.properties";
+
+	private final ResourceServlet servlet;
+
+	public ResourceCompiler(File root, Map<String, String> parameters,
+			boolean less) throws ServletException {
+		servlet = less ? new LessServlet() : new ResourceServlet();
+		servlet.init(createConfig(root, parameters));
+	}
+
+	public void compile(String[] paths, File output) throws Exception {
+		File manifestFile = new File(output, MANIFEST);
+		File directory = manifestFile.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory + ".");
+		}
+		Properties manifest = new Properties();
+		for (String path : paths) {
+			ResourcePackage rp = ResourcePackage.decode(path);
+			String[] uris = rp != null ? rp.getResources()
+					: new String[] { path };
+			long lastModified = servlet.getLastModified(uris);
+			ResourceContent content = servlet.getContent(path);
+			int dot = path.lastIndexOf('.');
+			String name = content.getHash()
+					+ (dot > path.lastIndexOf('/') ? path.substring(dot) : "");
+			write(new File(directory, name), content.getContent());
+			manifest.setProperty(path, name + ";" + lastModified);
+		}
+		OutputStream out = new FileOutputStream(manifestFile);
+		try {
+			manifest.store(out, "Precompiled resources");
+		} finally {
+			out.close();
+		}
+	}
+
+	public void destroy() {
+		servlet.destroy();
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static ServletConfig createConfig(final File root,
+			final Map<String, String> parameters) {
+		final ServletContext context = (ServletContext) Proxy
+				.newProxyInstance(ResourceCompiler.class.getClassLoader(),
+						new Class<?>[] { ServletContext.class },
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method,
+									Object[] args) throws Throwable {
+								String name = method.getName();
+								if ("getResource".equals(name)) {
+									File file = new File(root, (String) args[0]);
+									return file.exists() ? file.toURI().toURL()
+											: null;
+								}
+								if ("getRealPath".equals(name)) {
+									return new File(root, (String) args[0])
+											.getAbsolutePath();
+								}
+								if ("getInitParameter".equals(name)) {
+									return parameters.get(args[0]);
+								}
+								return invokeDefault(proxy, method, args);
+							}
+						});
+		return (ServletConfig) Proxy.newProxyInstance(
+				ResourceCompiler.class.getClassLoader(),
+				new Class<?>[] { ServletConfig.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getServletContext".equals(name)) {
+							return context;
+						}
+						if ("getServletName".equals(name)) {
+							return ResourceCompiler.class.getSimpleName();
+						}
+						if ("getInitParameter".equals(name)) {
+							return parameters.get(args[0]);
+						}
+						if ("getInitParameterNames".equals(name)) {
+							return Collections.enumeration(parameters.keySet());
+						}
+						return invokeDefault(proxy, method, args);
+					}
+				});
+	}
+
+	private static Object invokeDefault(Object proxy, Method method,
+			Object[] args) {
+		String name = method.getName();
+		if ("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+		if ("toString".equals(name)) {
+			return ResourceCompiler.class.getSimpleName();
+		}
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean less = false;
+		Map<String, String> parameters = new HashMap<String, String>();
+		List<String> arguments = new ArrayList<String>();
+		for (String arg : args) {
+			if ("-less".equals(arg)) {
+				less = true;
+			} else if (arg.startsWith("-") && arg.indexOf('=') != -1) {
+				parameters.put(arg.substring(1, arg.indexOf('=')),
+						arg.substring(arg.indexOf('=') + 1));
+			} else {
+				arguments.add(arg);
+			}
+		}
+		if (arguments.size() < 3) {
+			System.err.println("Usage: java "
+					+ ResourceCompiler.class.getName()
+					+ " [-less] [-param=value ...]"
+					+ " <webapp directory> <output directory> <path> ...");
+			System.exit(1);
+		}
+		ResourceCompiler compiler = new ResourceCompiler(new File(
+				arguments.get(0)), parameters, less);
+		try {
+			compiler.compile(
+					arguments.subList(2, arguments.size()).toArray(
+							new String[arguments.size() - 2]),
+					new File(arguments.get(1)));
+		} finally {
+			compiler.destroy();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Compiled content together with its precompressed variants. The content is
+ * shared rather than copied: the arrays and buffers returned for content kept
+ * on the heap are the backing storage of this instance and must not be
+ * modified by the caller.
+ */
+public class ResourceContent {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private final ByteBuffer content;
+	private final ByteBuffer gzip;
+	private final ByteBuffer deflate;
+	private final String hash;
+	private final long lastModified;
+
+	public ResourceContent(byte[] content, boolean encode) throws IOException {
+		this(content, encode, 0);
+	}
+
+	public ResourceContent(byte[] content, boolean encode, long lastModified)
+			throws IOException {
+		this(content, encode && content.length != 0 ? smallest(content,
+				gzip(content)) : null, encode && content.length != 0
+				? smallest(content, deflate(content)) : null, lastModified);
+	}
+
+	public ResourceContent(byte[] content, byte[] gzip, byte[] deflate,
+			long lastModified) {
+		this(wrap(content), wrap(gzip), wrap(deflate), lastModified,
+				DigestUtils.md5Hex(content));
+	}
+
+	private ResourceContent(ByteBuffer content, ByteBuffer gzip,
+			ByteBuffer deflate, long lastModified, String hash) {
+		this.content = content;
+		this.gzip = gzip;
+		this.deflate = deflate;
+		this.lastModified = lastModified;
+		this.hash = hash;
+	}
+
+	/**
+	 * Returns the content as an array. Content kept on the heap is returned
+	 * without copying and must not be modified; content kept in a
+	 * {@link ContentStore} is copied.
+	 */
+	public byte[] getContent() {
+		return array(content);
+	}
+
+	/**
+	 * Returns the selected representation as an array, shared in the same way
+	 * as {@link #getContent()}.
+	 */
+	public byte[] getContent(String encoding) {
+		return array(select(encoding));
+	}
+
+	/**
+	 * Returns a view of the selected representation that can be written
+	 * without copying it to the heap. Off-heap views are read-only; heap views
+	 * share the backing array and must not be written to.
+	 */
+	public ByteBuffer getBuffer(String encoding) {
+		ByteBuffer buffer = select(encoding);
+		return buffer.isDirect() ? buffer.asReadOnlyBuffer() : buffer
+				.duplicate();
+	}
+
+	public long getSize() {
+		return content.capacity() + (gzip != null ? gzip.capacity() : 0)
+				+ (deflate != null ? deflate.capacity() : 0);
+	}
+
+	/**
+	 * Returns the encoded representation as a shared array, or
+	 * <code>null</code> if the content is not kept in that encoding.
+	 */
+	public byte[] getVariant(String encoding) {
+		ByteBuffer result = select(encoding);
+		return result != content ? array(result) : null;
+	}
+
+	public boolean isEncoded() {
+		return gzip != null || deflate != null;
+	}
+
+	public boolean isDirect() {
+		return content.isDirect();
+	}
+
+	/**
+	 * Moves the representations that exceed the threshold of the store off
+	 * the heap.
+	 */
+	public ResourceContent store(ContentStore store) {
+		if (store == null || isDirect()) {
+			return this;
+		}
+		ByteBuffer c = store.store(content);
+		if (c == content) {
+			return this;
+		}
+		return new ResourceContent(c, gzip != null ? store.store(gzip)
+				: null, deflate != null ? store.store(deflate) : null,
+				lastModified, hash);
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public String getETag(String encoding) {
+		return "\"" + hash
+				+ (encoding != null && select(encoding) != content ? "-"
+						+ encoding : "") + "\"";
+	}
+
+	public boolean matches(String ifNoneMatch) {
+		for (String token : ifNoneMatch.split(",")) {
+			String etag = token.trim();
+			if ("*".equals(etag)) {
+				return true;
+			}
+			if (etag.startsWith("W/")) {
+				etag = etag.substring(2);
+			}
+			etag = etag.replaceAll("^\"|\"$", "");
+			int index = etag.indexOf('-');
+			if ((index != -1 ? etag.substring(0, index) : etag).equals(hash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getEncoding(String acceptEncoding) {
+		if (!isEncoded() || acceptEncoding == null) {
+			return null;
+		}
+		Float gzipQuality = null;
+		Float deflateQuality = null;
+		float anyQuality = 0;
+		for (String token : acceptEncoding.split(",")) {
+			String[] parts = token.trim().split(";");
+			String coding = parts[0].trim().toLowerCase();
+			float quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(param.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+				gzipQuality = quality;
+			} else if (DEFLATE.equals(coding)) {
+				deflateQuality = quality;
+			} else if ("*".equals(coding)) {
+				anyQuality = quality;
+			}
+		}
+		float gzipValue = gzip != null ? (gzipQuality != null ? gzipQuality
+				: anyQuality) : 0;
+		float deflateValue = deflate != null ? (deflateQuality != null
+				? deflateQuality : anyQuality) : 0;
+		if (gzipValue > 0 && gzipValue >= deflateValue) {
+			return GZIP;
+		}
+		if (deflateValue > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	private ByteBuffer select(String encoding) {
+		if (GZIP.equals(encoding) && gzip != null) {
+			return gzip;
+		}
+		if (DEFLATE.equals(encoding) && deflate != null) {
+			return deflate;
+		}
+		return content;
+	}
+
+	private static ByteBuffer wrap(byte[] content) {
+		return content != null ? ByteBuffer.wrap(content) : null;
+	}
+
+	private static byte[] array(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			return buffer.array();
+		}
+		byte[] result = new byte[buffer.capacity()];
+		buffer.duplicate().get(result);
+		return result;
+	}
+
+	private static byte[] smallest(byte[] content, byte[] encoded) {
+		return encoded.length < content.length ? encoded : null;
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(
+				content.length / 2);
+		GZIPOutputStream out = new GZIPOutputStream(baos) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		};
+		out.write(content);
+		out.close();
+		return baos.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] content) throws IOException {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(
+					content.length / 2);
+			DeflaterOutputStream out = new DeflaterOutputStream(baos,
+					deflater);
+			out.write(content);
+			out.close();
+			return baos.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
\ No newline at end of file
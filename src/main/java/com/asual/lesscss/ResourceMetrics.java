@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counters and latency histograms for the compile, minify, cache and serve
+ * paths of a servlet. Updates are lock-free so the hooks can stay enabled in
+ * production.
+ */
+public class ResourceMetrics implements ResourceMetricsMBean {
+
+	public static final String COMPILE = "compile";
+	public static final String CSSMIN = "cssmin";
+	public static final String CLOSURE = "closure";
+	public static final String FRESHNESS = "freshness";
+
+	private static final double MILLISECOND = 1000000.0;
+
+	private final Map<String, LatencyHistogram> timers = new HashMap<String, LatencyHistogram>();
+	{
+		timers.put(COMPILE, new LatencyHistogram());
+		timers.put(CSSMIN, new LatencyHistogram());
+		timers.put(CLOSURE, new LatencyHistogram());
+		timers.put(FRESHNESS, new LatencyHistogram());
+	}
+
+	private volatile boolean timing;
+	private final ResourceCache<?, ?> resources;
+	private final ResourceCache<?, ?> packages;
+	private final StripedCounter contentHits = new StripedCounter();
+	private final StripedCounter contentMisses = new StripedCounter();
+	private final StripedCounter okResponses = new StripedCounter();
+	private final StripedCounter notModifiedResponses = new StripedCounter();
+	private final StripedCounter asyncTimeouts = new StripedCounter();
+	private final StripedCounter asyncErrors = new StripedCounter();
+	private final ConcurrentMap<String, StripedCounter> bytesServed = new ConcurrentHashMap<String, StripedCounter>();
+
+	public ResourceMetrics(ResourceCache<?, ?> resources,
+			ResourceCache<?, ?> packages) {
+		this.resources = resources;
+		this.packages = packages;
+	}
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	public void record(String timer, long start) {
+		long nanos = System.nanoTime() - start;
+		LatencyHistogram histogram = timers.get(timer);
+		if (histogram != null) {
+			histogram.record(nanos);
+		}
+		if (timing) {
+			ServerTiming.record(timer, nanos);
+		}
+	}
+
+	public void setTiming(boolean timing) {
+		this.timing = timing;
+	}
+
+	public LatencyHistogram getTimer(String timer) {
+		return timers.get(timer);
+	}
+
+	public void contentHit() {
+		contentHits.increment();
+	}
+
+	public void contentMiss() {
+		contentMisses.increment();
+	}
+
+	public void notModified() {
+		notModifiedResponses.increment();
+	}
+
+	public void asyncTimeout() {
+		asyncTimeouts.increment();
+	}
+
+	public void asyncError() {
+		asyncErrors.increment();
+	}
+
+	public void served(String mimeType, long bytes) {
+		okResponses.increment();
+		StripedCounter counter = bytesServed.get(mimeType);
+		if (counter == null) {
+			counter = new StripedCounter();
+			StripedCounter existing = bytesServed.putIfAbsent(mimeType,
+					counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.add(bytes);
+	}
+
+	public long getCompileCount() {
+		return timers.get(COMPILE).getCount();
+	}
+
+	public double getCompileMeanTime() {
+		return timers.get(COMPILE).getMean() / MILLISECOND;
+	}
+
+	public double getCompile99thPercentile() {
+		return timers.get(COMPILE).getPercentile(99) / MILLISECOND;
+	}
+
+	public double getCompileMaxTime() {
+		return timers.get(COMPILE).getMax() / MILLISECOND;
+	}
+
+	public long getCssminCount() {
+		return timers.get(CSSMIN).getCount();
+	}
+
+	public double getCssminMeanTime() {
+		return timers.get(CSSMIN).getMean() / MILLISECOND;
+	}
+
+	public double getCssmin99thPercentile() {
+		return timers.get(CSSMIN).getPercentile(99) / MILLISECOND;
+	}
+
+	public long getClosureCount() {
+		return timers.get(CLOSURE).getCount();
+	}
+
+	public double getClosureMeanTime() {
+		return timers.get(CLOSURE).getMean() / MILLISECOND;
+	}
+
+	public double getClosure99thPercentile() {
+		return timers.get(CLOSURE).getPercentile(99) / MILLISECOND;
+	}
+
+	public long getFreshnessCheckCount() {
+		return timers.get(FRESHNESS).getCount();
+	}
+
+	public double getFreshnessCheckMeanTime() {
+		return timers.get(FRESHNESS).getMean() / MILLISECOND;
+	}
+
+	public double getFreshnessCheck99thPercentile() {
+		return timers.get(FRESHNESS).getPercentile(99) / MILLISECOND;
+	}
+
+	public long getResourceCacheHits() {
+		return resources.getHits();
+	}
+
+	public long getResourceCacheMisses() {
+		return resources.getMisses();
+	}
+
+	public long getResourceCacheEvictions() {
+		return resources.getEvictions();
+	}
+
+	public int getResourceCacheSize() {
+		return resources.size();
+	}
+
+	public long getResourceCacheWeight() {
+		return resources.getWeight();
+	}
+
+	public long getPackageCacheHits() {
+		return packages.getHits();
+	}
+
+	public long getPackageCacheMisses() {
+		return packages.getMisses();
+	}
+
+	public long getPackageCacheEvictions() {
+		return packages.getEvictions();
+	}
+
+	public long getContentHits() {
+		return contentHits.get();
+	}
+
+	public long getContentMisses() {
+		return contentMisses.get();
+	}
+
+	public long getOkResponses() {
+		return okResponses.get();
+	}
+
+	public long getNotModifiedResponses() {
+		return notModifiedResponses.get();
+	}
+
+	public long getAsyncTimeouts() {
+		return asyncTimeouts.get();
+	}
+
+	public long getAsyncErrors() {
+		return asyncErrors.get();
+	}
+
+	public long getBytesServed() {
+		long result = 0;
+		for (StripedCounter counter : bytesServed.values()) {
+			result += counter.get();
+		}
+		return result;
+	}
+
+	public Map<String, Long> getBytesServedByMimeType() {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (Map.Entry<String, StripedCounter> entry : bytesServed.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : timers.values()) {
+			histogram.reset();
+		}
+		contentHits.reset();
+		contentMisses.reset();
+		okResponses.reset();
+		notModifiedResponses.reset();
+		asyncTimeouts.reset();
+		asyncErrors.reset();
+		bytesServed.clear();
+	}
+}
\ No newline at end of file
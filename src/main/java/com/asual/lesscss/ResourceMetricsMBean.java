@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ResourceMetrics}. Durations are in milliseconds.
+ */
+public interface ResourceMetricsMBean {
+
+	long getCompileCount();
+
+	double getCompileMeanTime();
+
+	double getCompile99thPercentile();
+
+	double getCompileMaxTime();
+
+	long getCssminCount();
+
+	double getCssminMeanTime();
+
+	double getCssmin99thPercentile();
+
+	long getClosureCount();
+
+	double getClosureMeanTime();
+
+	double getClosure99thPercentile();
+
+	long getFreshnessCheckCount();
+
+	double getFreshnessCheckMeanTime();
+
+	double getFreshnessCheck99thPercentile();
+
+	long getResourceCacheHits();
+
+	long getResourceCacheMisses();
+
+	long getResourceCacheEvictions();
+
+	int getResourceCacheSize();
+
+	long getResourceCacheWeight();
+
+	long getPackageCacheHits();
+
+	long getPackageCacheMisses();
+
+	long getPackageCacheEvictions();
+
+	long getContentHits();
+
+	long getContentMisses();
+
+	long getOkResponses();
+
+	long getNotModifiedResponses();
+
+	long getAsyncTimeouts();
+
+	long getAsyncErrors();
+
+	long getBytesServed();
+
+	Map<String, Long> getBytesServedByMimeType();
+
+	void reset();
+}
\ No newline at end of file
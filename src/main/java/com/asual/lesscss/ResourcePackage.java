@@ -14,18 +14,13 @@
 
 package com.asual.lesscss;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,14 +30,22 @@ import org.apache.commons.logging.LogFactory;
  */
 public class ResourcePackage {
 
-	private final static Map<String, String> cache = new ConcurrentHashMap<String, String>();
+	public final static int MAX_RESOURCES = 256;
+
+	private final static int CACHE_ENTRIES = 4096;
+	private final static long CACHE_WEIGHT = 4L * 1024 * 1024;
+	private final static int ENTRY_OVERHEAD = 128;
+	private final static int RESOURCE_OVERHEAD = 48;
+	private final static ResourceCache<String, ResourcePackage> packages = new ResourceCache<String, ResourcePackage>(
+			CACHE_WEIGHT, CACHE_ENTRIES);
+	private final static ResourceCache<ResourcePackage, String> paths = new ResourceCache<ResourcePackage, String>(
+			CACHE_WEIGHT, CACHE_ENTRIES);
 	private final static Log logger = LogFactory.getLog(ResourcePackage.class);
 	private final static List<String> extensions = Arrays.asList("css", "less",
 			"js");
 
 	private static int NAME_FLAG = 1;
 	private static int VERSION_FLAG = 2;
-	private static int DEFLATE = 32;
 	private static String ENCODING = "UTF-8";
 	private static String NEW_LINE = "\n";
 	private static String SEPARATOR = "-";
@@ -51,13 +54,27 @@ public class ResourcePackage {
 	private String version;
 	private String name;
 	private String extension;
+	private boolean frozen;
 
 	public ResourcePackage(String[] resources) {
 		this.resources = resources;
 	}
 
 	public static ResourcePackage fromString(String source) {
+		ResourcePackage rp = decode(source);
+		return rp != null ? rp.copy(false) : null;
+	}
+
+	/**
+	 * Returns the cached immutable instance for the path, without the copy
+	 * made by {@link #fromString(String)}.
+	 */
+	static ResourcePackage decode(String source) {
 		if (!StringUtils.isEmpty(source)) {
+			ResourcePackage cached = packages.get(source);
+			if (cached != null) {
+				return cached;
+			}
 			try {
 				String key;
 				String path = null;
@@ -74,19 +91,23 @@ public class ResourcePackage {
 					return null;
 				}
 				String[] parts = path.replaceFirst("^/", "").split(SEPARATOR);
-				if (cache.containsValue(source)) {
-					key = getKeyFromValue(cache, source);
-				} else {
-					key = parts[parts.length - 1];
-					byte[] bytes = null;
-					try {
-						bytes = Base64.decodeBase64(key.getBytes(ENCODING));
-						bytes = inflate(bytes);
-					} catch (Exception e) {
-					}
-					key = new String(bytes, ENCODING);
+				key = parts[parts.length - 1];
+				byte[] bytes = null;
+				try {
+					bytes = Base64.decodeBase64(key.getBytes(ENCODING));
+					bytes = PackageCodec.decode(bytes);
+				} catch (Exception e) {
 				}
+				key = new String(bytes, ENCODING);
 				String[] data = key.split(NEW_LINE);
+				if (data.length < 2 || data.length - 1 > MAX_RESOURCES) {
+					return null;
+				}
+				for (int i = 1; i < data.length; i++) {
+					if (data[i].length() == 0) {
+						return null;
+					}
+				}
 				ResourcePackage rp = new ResourcePackage(
 						(String[]) ArrayUtils.subarray(data, 1, data.length));
 				int mask = Integer.valueOf(data[0]);
@@ -97,6 +118,8 @@ public class ResourcePackage {
 					rp.setVersion(parts[rp.getName() != null ? 1 : 0]);
 				}
 				rp.setExtension(extension);
+				rp = rp.freeze();
+				packages.put(source, rp, getWeight(source, rp.resources));
 				return rp;
 			} catch (Exception e) {
 			}
@@ -116,32 +139,59 @@ public class ResourcePackage {
 			if (version != null) {
 				mask = mask | VERSION_FLAG;
 			}
-			String key = mask + NEW_LINE
-					+ StringUtils.join(resources, NEW_LINE);
-			if (!cache.containsKey(key)) {
+			if (resources.length > MAX_RESOURCES) {
+				throw new Exception("Too many resources: " + resources.length);
+			}
+			String result = paths.get(this);
+			if (result == null) {
+				String key = mask + NEW_LINE
+						+ StringUtils.join(resources, NEW_LINE);
 				byte[] bytes = key.getBytes(ENCODING);
 				StringBuilder sb = new StringBuilder();
 				sb.append("/");
 				sb.append(name == null ? "" : name + SEPARATOR);
 				sb.append(version == null ? "" : version + SEPARATOR);
 				sb.append(Base64.encodeBase64URLSafeString(
-						bytes.length < DEFLATE ? bytes : deflate(bytes))
-						.replaceAll("-", "+"));
+						PackageCodec.encode(bytes)).replaceAll("-", "+"));
 				sb.append(extension == null ? "" : "." + extension);
-				cache.put(key, sb.toString());
+				result = sb.toString();
+				ResourcePackage rp = freeze();
+				long weight = getWeight(result, resources);
+				paths.put(rp, result, weight);
+				packages.put(result, rp, weight);
 			}
-			return cache.get(key);
+			return result;
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 		}
 		return null;
 	}
 
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ResourcePackage)) {
+			return false;
+		}
+		ResourcePackage rp = (ResourcePackage) obj;
+		return Arrays.equals(resources, rp.resources)
+				&& ObjectUtils.equals(name, rp.name)
+				&& ObjectUtils.equals(version, rp.version)
+				&& ObjectUtils.equals(extension, rp.extension);
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(new Object[] { Arrays.hashCode(resources), name,
+				version, extension });
+	}
+
 	public String getName() {
 		return name;
 	}
 
 	public void setName(String name) {
+		checkFrozen();
 		this.name = name;
 	}
 
@@ -150,6 +200,7 @@ public class ResourcePackage {
 	}
 
 	public void setExtension(String extension) {
+		checkFrozen();
 		this.extension = extension;
 	}
 
@@ -158,11 +209,59 @@ public class ResourcePackage {
 	}
 
 	public void setVersion(String version) {
+		checkFrozen();
 		this.version = version;
 	}
 
 	public String[] getResources() {
-		return resources;
+		return frozen ? resources.clone() : resources;
+	}
+
+	private ResourcePackage freeze() {
+		return frozen ? this : copy(true);
+	}
+
+	private ResourcePackage copy(boolean frozen) {
+		ResourcePackage rp = new ResourcePackage(resources.clone());
+		rp.name = name;
+		rp.version = version;
+		rp.extension = extension;
+		rp.frozen = frozen;
+		return rp;
+	}
+
+	private static long getWeight(String path, String[] resources) {
+		long weight = ENTRY_OVERHEAD + 2L * path.length();
+		for (String resource : resources) {
+			weight += RESOURCE_OVERHEAD + 2L * resource.length();
+		}
+		return weight;
+	}
+
+	/**
+	 * Appends application path prefixes to the dictionary that primes package
+	 * keys. Keys encoded with other prefixes are rejected afterwards, so all
+	 * nodes serving the same URLs need the same prefixes.
+	 */
+	public static void setPrefixes(String... prefixes) {
+		PackageCodec.setPrefixes(prefixes);
+		packages.clear();
+		paths.clear();
+	}
+
+	static long getCacheWeight() {
+		return packages.getWeight() + paths.getWeight();
+	}
+
+	static int getCacheSize() {
+		return packages.size();
+	}
+
+	private void checkFrozen() {
+		if (frozen) {
+			throw new UnsupportedOperationException(
+					"Cached packages are immutable.");
+		}
 	}
 
 	public static <K, V> K getKeyFromValue(Map<K, V> m, V value) {
@@ -173,33 +272,4 @@ public class ResourcePackage {
 		}
 		return null;
 	}
-
-	private static byte[] deflate(byte[] input) throws IOException {
-		Deflater deflater = new Deflater();
-		deflater.setLevel(Deflater.BEST_COMPRESSION);
-		deflater.setInput(input);
-		deflater.finish();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(input.length);
-		byte[] buf = new byte[1024];
-		while (!deflater.finished()) {
-			int count = deflater.deflate(buf);
-			baos.write(buf, 0, count);
-		}
-		baos.close();
-		return baos.toByteArray();
-	}
-
-	private static byte[] inflate(byte[] output) throws DataFormatException,
-			IOException {
-		Inflater inflater = new Inflater();
-		inflater.setInput(output);
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(output.length);
-		byte[] buf = new byte[1024];
-		while (!inflater.finished()) {
-			int count = inflater.inflate(buf);
-			baos.write(buf, 0, count);
-		}
-		baos.close();
-		return baos.toByteArray();
-	}
 }
\ No newline at end of file
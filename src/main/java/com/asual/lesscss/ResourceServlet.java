@@ -14,13 +14,55 @@
 
 package com.asual.lesscss;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.NamingException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -29,20 +71,61 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.javascript.jscomp.CompilationLevel;
+
 /**
  * @author Rostislav Hristov
  */
 public class ResourceServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 413708886190444579L;
+	public static final String ATTRIBUTE = ResourceServlet.class.getName()
+			+ ".";
 	private final Log logger = LogFactory.getLog(getClass());
 	protected Context initialContext = null;
 	protected String charset = "UTF-8";
 	protected boolean cache = true;
 	protected boolean compress = true;
+	protected boolean encode = true;
 	protected int maxAge = 31556926;
 	protected long milliseconds = 1000L;
-	protected Map<String, Resource> resources = new HashMap<String, Resource>();
+	protected long cacheSize = 64L * 1024 * 1024;
+	protected int cacheEntries = 4096;
+	protected CompilationLevel compilationLevel = CompilationLevel.SIMPLE_OPTIMIZATIONS;
+	protected String packagePrefixes;
+	protected boolean packageCompilation = false;
+	protected boolean compilerThreads = false;
+	protected boolean watch = false;
+	protected ResourceWatcher watcher;
+	protected String manifest;
+	protected String diskCachePath;
+	protected String sharedCachePath;
+	protected long sharedCacheTimeout = 5000L;
+	protected long sharedCacheStaleAge = 300000L;
+	protected String artifactStoreClass;
+	protected ArtifactStore artifactStore;
+	protected boolean async = false;
+	protected int asyncThreads = Runtime.getRuntime().availableProcessors();
+	protected int asyncQueue = 256;
+	protected long asyncTimeout = 30000L;
+	protected ThreadPoolExecutor executor;
+	protected long streamThreshold = 1024L * 1024;
+	protected long offHeapThreshold = 256L * 1024;
+	protected long offHeapBudget = 64L * 1024 * 1024;
+	protected String offHeapStorage = ContentStore.DIRECT;
+	protected ContentStore contentStore;
+	protected String warmup;
+	protected boolean warmupWait = false;
+	protected ForkJoinPool warmupPool;
+	protected volatile boolean ready;
+	protected boolean jmx = true;
+	protected boolean serverTiming = false;
+	protected boolean timingLog = false;
+	protected ResourceMetrics metrics;
+	protected ObjectName objectName;
+	protected Map<String, ResourceContent> precompiled = Collections.emptyMap();
+	protected ResourceCache<String, Resource> resources;
+	protected ResourceCache<ResourcePackage, PackageContent> packages;
 	protected Map<String, String> mimeTypes = new HashMap<String, String>();
 	{
 		mimeTypes.put("css", "text/css");
@@ -82,6 +165,90 @@ public class ResourceServlet extends HttpServlet {
 			if (getInitParameter("compress") != null) {
 				compress = Boolean.valueOf(getInitParameter("compress"));
 			}
+			if (getInitParameter("encode") != null) {
+				encode = Boolean.valueOf(getInitParameter("encode"));
+			}
+			if (getInitParameter("cacheSize") != null) {
+				cacheSize = Long.valueOf(getInitParameter("cacheSize"));
+			}
+			if (getInitParameter("cacheEntries") != null) {
+				cacheEntries = Integer.valueOf(getInitParameter("cacheEntries"));
+			}
+			if (getInitParameter("compilationLevel") != null) {
+				compilationLevel = CompilationLevel
+						.valueOf(getInitParameter("compilationLevel"));
+			}
+			if (getInitParameter("packageCompilation") != null) {
+				packageCompilation = Boolean
+						.valueOf(getInitParameter("packageCompilation"));
+			}
+			if (getInitParameter("packagePrefixes") != null) {
+				packagePrefixes = getInitParameter("packagePrefixes");
+			}
+			if (getInitParameter("compilerThreads") != null) {
+				compilerThreads = Boolean
+						.valueOf(getInitParameter("compilerThreads"));
+			}
+			if (getInitParameter("watch") != null) {
+				watch = Boolean.valueOf(getInitParameter("watch"));
+			}
+			if (getInitParameter("manifest") != null) {
+				manifest = getInitParameter("manifest");
+			}
+			if (getInitParameter("diskCache") != null) {
+				diskCachePath = getInitParameter("diskCache");
+			}
+			if (getInitParameter("sharedCache") != null) {
+				sharedCachePath = getInitParameter("sharedCache");
+			}
+			if (getInitParameter("sharedCacheTimeout") != null) {
+				sharedCacheTimeout = Long.valueOf(getInitParameter("sharedCacheTimeout"));
+			}
+			if (getInitParameter("sharedCacheStaleAge") != null) {
+				sharedCacheStaleAge = Long.valueOf(getInitParameter("sharedCacheStaleAge"));
+			}
+			if (getInitParameter("artifactStore") != null) {
+				artifactStoreClass = getInitParameter("artifactStore");
+			}
+			if (getInitParameter("async") != null) {
+				async = Boolean.valueOf(getInitParameter("async"));
+			}
+			if (getInitParameter("asyncThreads") != null) {
+				asyncThreads = Integer.valueOf(getInitParameter("asyncThreads"));
+			}
+			if (getInitParameter("asyncQueue") != null) {
+				asyncQueue = Integer.valueOf(getInitParameter("asyncQueue"));
+			}
+			if (getInitParameter("asyncTimeout") != null) {
+				asyncTimeout = Long.valueOf(getInitParameter("asyncTimeout"));
+			}
+			if (getInitParameter("streamThreshold") != null) {
+				streamThreshold = Long.valueOf(getInitParameter("streamThreshold"));
+			}
+			if (getInitParameter("offHeapThreshold") != null) {
+				offHeapThreshold = Long.valueOf(getInitParameter("offHeapThreshold"));
+			}
+			if (getInitParameter("offHeapBudget") != null) {
+				offHeapBudget = Long.valueOf(getInitParameter("offHeapBudget"));
+			}
+			if (getInitParameter("offHeapStorage") != null) {
+				offHeapStorage = getInitParameter("offHeapStorage");
+			}
+			if (getInitParameter("warmup") != null) {
+				warmup = getInitParameter("warmup");
+			}
+			if (getInitParameter("warmupWait") != null) {
+				warmupWait = Boolean.valueOf(getInitParameter("warmupWait"));
+			}
+			if (getInitParameter("jmx") != null) {
+				jmx = Boolean.valueOf(getInitParameter("jmx"));
+			}
+			if (getInitParameter("serverTiming") != null) {
+				serverTiming = Boolean.valueOf(getInitParameter("serverTiming"));
+			}
+			if (getInitParameter("timingLog") != null) {
+				timingLog = Boolean.valueOf(getInitParameter("timingLog"));
+			}
 		}
 		try {
 			initialContext = new javax.naming.InitialContext();
@@ -98,6 +265,513 @@ public class ResourceServlet extends HttpServlet {
 			if (getJndiParameter("/resource/Compress") != null) {
 				compress = (Boolean) getJndiParameter("/resource/Compress");
 			}
+			if (getJndiParameter("/resource/Encode") != null) {
+				encode = (Boolean) getJndiParameter("/resource/Encode");
+			}
+			if (getJndiParameter("/resource/CacheSize") != null) {
+				cacheSize = (Long) getJndiParameter("/resource/CacheSize");
+			}
+			if (getJndiParameter("/resource/CacheEntries") != null) {
+				cacheEntries = (Integer) getJndiParameter("/resource/CacheEntries");
+			}
+			if (getJndiParameter("/resource/CompilationLevel") != null) {
+				compilationLevel = CompilationLevel
+						.valueOf((String) getJndiParameter("/resource/CompilationLevel"));
+			}
+			if (getJndiParameter("/resource/PackageCompilation") != null) {
+				packageCompilation = (Boolean) getJndiParameter("/resource/PackageCompilation");
+			}
+			if (getJndiParameter("/resource/PackagePrefixes") != null) {
+				packagePrefixes = (String) getJndiParameter("/resource/PackagePrefixes");
+			}
+			if (getJndiParameter("/resource/CompilerThreads") != null) {
+				compilerThreads = (Boolean) getJndiParameter("/resource/CompilerThreads");
+			}
+			if (getJndiParameter("/resource/Watch") != null) {
+				watch = (Boolean) getJndiParameter("/resource/Watch");
+			}
+			if (getJndiParameter("/resource/Manifest") != null) {
+				manifest = (String) getJndiParameter("/resource/Manifest");
+			}
+			if (getJndiParameter("/resource/DiskCache") != null) {
+				diskCachePath = (String) getJndiParameter("/resource/DiskCache");
+			}
+			if (getJndiParameter("/resource/SharedCache") != null) {
+				sharedCachePath = (String) getJndiParameter("/resource/SharedCache");
+			}
+			if (getJndiParameter("/resource/SharedCacheTimeout") != null) {
+				sharedCacheTimeout = (Long) getJndiParameter("/resource/SharedCacheTimeout");
+			}
+			if (getJndiParameter("/resource/SharedCacheStaleAge") != null) {
+				sharedCacheStaleAge = (Long) getJndiParameter("/resource/SharedCacheStaleAge");
+			}
+			if (getJndiParameter("/resource/ArtifactStore") != null) {
+				artifactStoreClass = (String) getJndiParameter("/resource/ArtifactStore");
+			}
+			if (getJndiParameter("/resource/Async") != null) {
+				async = (Boolean) getJndiParameter("/resource/Async");
+			}
+			if (getJndiParameter("/resource/AsyncThreads") != null) {
+				asyncThreads = (Integer) getJndiParameter("/resource/AsyncThreads");
+			}
+			if (getJndiParameter("/resource/AsyncQueue") != null) {
+				asyncQueue = (Integer) getJndiParameter("/resource/AsyncQueue");
+			}
+			if (getJndiParameter("/resource/AsyncTimeout") != null) {
+				asyncTimeout = (Long) getJndiParameter("/resource/AsyncTimeout");
+			}
+			if (getJndiParameter("/resource/StreamThreshold") != null) {
+				streamThreshold = (Long) getJndiParameter("/resource/StreamThreshold");
+			}
+			if (getJndiParameter("/resource/OffHeapThreshold") != null) {
+				offHeapThreshold = (Long) getJndiParameter("/resource/OffHeapThreshold");
+			}
+			if (getJndiParameter("/resource/OffHeapBudget") != null) {
+				offHeapBudget = (Long) getJndiParameter("/resource/OffHeapBudget");
+			}
+			if (getJndiParameter("/resource/OffHeapStorage") != null) {
+				offHeapStorage = (String) getJndiParameter("/resource/OffHeapStorage");
+			}
+			if (getJndiParameter("/resource/Warmup") != null) {
+				warmup = (String) getJndiParameter("/resource/Warmup");
+			}
+			if (getJndiParameter("/resource/WarmupWait") != null) {
+				warmupWait = (Boolean) getJndiParameter("/resource/WarmupWait");
+			}
+			if (getJndiParameter("/resource/Jmx") != null) {
+				jmx = (Boolean) getJndiParameter("/resource/Jmx");
+			}
+			if (getJndiParameter("/resource/ServerTiming") != null) {
+				serverTiming = (Boolean) getJndiParameter("/resource/ServerTiming");
+			}
+			if (getJndiParameter("/resource/TimingLog") != null) {
+				timingLog = (Boolean) getJndiParameter("/resource/TimingLog");
+			}
+		}
+		initCaches();
+		initMetrics();
+		initAttribute();
+		initPackagePrefixes();
+		initCompressors();
+		initWatcher();
+		initManifest();
+		initArtifactStore();
+		initExecutor();
+		initWarmup();
+	}
+
+	protected void initMetrics() {
+		metrics = new ResourceMetrics(resources, packages);
+		metrics.setTiming(serverTiming);
+		if (!jmx) {
+			return;
+		}
+		try {
+			objectName = new ObjectName("com.asual.lesscss:type="
+					+ getClass().getSimpleName() + ",context="
+					+ ObjectName.quote(String.valueOf(getServletContext()
+							.getContextPath())) + ",name="
+					+ ObjectName.quote(String.valueOf(getServletName())));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					objectName);
+		} catch (InstanceAlreadyExistsException e) {
+			logger.warn("Metrics are already registered as " + objectName
+					+ ".");
+			objectName = null;
+		} catch (JMException e) {
+			logger.error(e.getMessage(), e);
+			objectName = null;
+		}
+	}
+
+	public ResourceMetrics getMetrics() {
+		return metrics;
+	}
+
+	protected void initAttribute() {
+		getServletContext().setAttribute(ATTRIBUTE + getServletName(), this);
+	}
+
+	protected void initPackagePrefixes() {
+		if (packagePrefixes != null) {
+			ResourcePackage.setPrefixes(packagePrefixes.trim().split(
+					"[,\\s]+"));
+		}
+	}
+
+	protected void initWarmup() {
+		if (warmup == null) {
+			ready = true;
+			return;
+		}
+		final List<String> paths = getWarmupPaths(warmup);
+		final long start = System.currentTimeMillis();
+		final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		warmupPool = new ForkJoinPool(Runtime.getRuntime()
+				.availableProcessors());
+		for (final String path : paths) {
+			tasks.add(warmupPool.submit(new Runnable() {
+				public void run() {
+					try {
+						getContent(path);
+					} catch (Exception e) {
+						logger.error("Cannot warm up " + path + ".", e);
+					}
+				}
+			}));
+		}
+		Runnable completion = new Runnable() {
+			public void run() {
+				try {
+					for (ForkJoinTask<?> task : tasks) {
+						task.join();
+					}
+					logger.debug("Warmed up " + paths.size()
+							+ " resources in "
+							+ (System.currentTimeMillis() - start) + "ms.");
+				} catch (CancellationException e) {
+				} finally {
+					warmupPool.shutdown();
+					ready = true;
+				}
+			}
+		};
+		if (warmupWait) {
+			completion.run();
+		} else {
+			Thread thread = new Thread(completion, "lesscss-warmup");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	protected List<String> getWarmupPaths(String value) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (String token : value.trim().split("[,\\s]+")) {
+			if (token.indexOf('*') == -1 && token.indexOf('?') == -1) {
+				result.add(token);
+				continue;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < token.length(); i++) {
+				char c = token.charAt(i);
+				if (c == '*' && i + 2 < token.length()
+						&& token.charAt(i + 1) == '*'
+						&& token.charAt(i + 2) == '/') {
+					sb.append("(?:.*/)?");
+					i += 2;
+				} else if (c == '*' && i + 1 < token.length()
+						&& token.charAt(i + 1) == '*') {
+					sb.append(".*");
+					i++;
+				} else if (c == '*') {
+					sb.append("[^/]*");
+				} else if (c == '?') {
+					sb.append("[^/]");
+				} else {
+					sb.append(Pattern.quote(String.valueOf(c)));
+				}
+			}
+			String prefix = token.substring(0, token.replaceAll("[*?].*$", "")
+					.lastIndexOf('/') + 1);
+			if (prefix.length() == 0) {
+				prefix = "/";
+			}
+			Pattern pattern = Pattern.compile(sb.toString());
+			int size = result.size();
+			for (String root : new String[] { "", "/META-INF",
+					"/META-INF/resources" }) {
+				collectPaths(root, root + prefix, pattern, result);
+				if (root.length() != 0) {
+					collectClasspathPaths(root.substring(1), prefix, pattern,
+							result);
+				}
+			}
+			if (result.size() == size) {
+				logger.warn("No resources match warmup pattern " + token + ".");
+			}
+		}
+		return new ArrayList<String>(result);
+	}
+
+	private void collectPaths(String root, String directory, Pattern pattern,
+			Set<String> result) {
+		Set<String> paths = getServletContext().getResourcePaths(directory);
+		if (paths == null) {
+			return;
+		}
+		for (String path : paths) {
+			if (path.endsWith("/")) {
+				collectPaths(root, path, pattern, result);
+			} else {
+				path = path.substring(root.length());
+				if (pattern.matcher(path).matches()) {
+					result.add(path);
+				}
+			}
+		}
+	}
+
+	private void collectClasspathPaths(String root, String prefix,
+			Pattern pattern, Set<String> result) {
+		try {
+			Enumeration<URL> urls = getClass().getClassLoader().getResources(
+					root + prefix);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if ("file".equals(url.getProtocol())) {
+					collectFiles(new File(url.toURI()), prefix, pattern, result);
+					continue;
+				}
+				URLConnection connection = url.openConnection();
+				if (connection instanceof JarURLConnection) {
+					JarURLConnection jar = (JarURLConnection) connection;
+					jar.setUseCaches(false);
+					String entryName = jar.getEntryName();
+					JarFile file = jar.getJarFile();
+					try {
+						Enumeration<JarEntry> entries = file.entries();
+						while (entries.hasMoreElements()) {
+							JarEntry entry = entries.nextElement();
+							String name = entry.getName();
+							if (!entry.isDirectory()
+									&& name.startsWith(entryName)) {
+								String path = prefix
+										+ name.substring(entryName.length());
+								if (pattern.matcher(path).matches()) {
+									result.add(path);
+								}
+							}
+						}
+					} finally {
+						file.close();
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Cannot expand warmup pattern in " + root + ".", e);
+		}
+	}
+
+	private void collectFiles(File directory, String prefix, Pattern pattern,
+			Set<String> result) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String path = prefix + file.getName();
+			if (file.isDirectory()) {
+				collectFiles(file, path + "/", pattern, result);
+			} else if (pattern.matcher(path).matches()) {
+				result.add(path);
+			}
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	protected void initExecutor() {
+		if (async) {
+			final AtomicInteger count = new AtomicInteger();
+			executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+							asyncQueue), new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"lesscss-compiler-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	protected void initArtifactStore() {
+		try {
+			if (artifactStoreClass != null) {
+				Class<?> type = Class.forName(artifactStoreClass, true, Thread
+						.currentThread().getContextClassLoader());
+				artifactStore = (ArtifactStore) type.getConstructor(
+						String.class).newInstance(getOptions());
+			} else if (sharedCachePath != null) {
+				artifactStore = new SharedDirectoryStore(new File(
+						sharedCachePath), getOptions(), sharedCacheTimeout,
+						sharedCacheStaleAge);
+			} else if (diskCachePath != null) {
+				artifactStore = new DiskCache(new File(diskCachePath),
+						getOptions());
+			}
+		} catch (Exception e) {
+			logger.error("Cannot create the artifact store.", e);
+		}
+	}
+
+	protected String getOptions() {
+		return getClass().getName() + ";charset=" + charset + ";compress="
+				+ compress + ";encode=" + encode + ";compilationLevel="
+				+ compilationLevel;
+	}
+
+	public void destroy() {
+		if (watcher != null) {
+			watcher.close();
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		if (warmupPool != null) {
+			warmupPool.shutdownNow();
+		}
+		if (getServletConfig() != null) {
+			String name = ATTRIBUTE + getServletName();
+			if (getServletContext().getAttribute(name) == this) {
+				getServletContext().removeAttribute(name);
+			}
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+						objectName);
+			} catch (JMException e) {
+				logger.error(e.getMessage(), e);
+			}
+			objectName = null;
+		}
+	}
+
+	protected void initWatcher() {
+		if (watch) {
+			try {
+				watcher = new ResourceWatcher(new ResourceWatcher.Listener() {
+					public void changed(Path path) {
+						invalidate(path);
+					}
+				});
+			} catch (IOException e) {
+				logger.error("Cannot watch resources, falling back to polling.", e);
+			}
+		}
+	}
+
+	protected void initManifest() {
+		if (manifest == null) {
+			return;
+		}
+		try {
+			URL url = getServletContext().getResource(manifest);
+			if (url == null) {
+				url = getClass().getClassLoader().getResource(
+						manifest.replaceFirst("^/", ""));
+			}
+			if (url == null) {
+				logger.error("Cannot find " + manifest + ".");
+				return;
+			}
+			Properties properties = new Properties();
+			InputStream input = url.openStream();
+			try {
+				properties.load(input);
+			} finally {
+				input.close();
+			}
+			Map<String, ResourceContent> result = new HashMap<String, ResourceContent>();
+			for (String path : properties.stringPropertyNames()) {
+				String[] value = properties.getProperty(path).split(";");
+				ResourcePackage rp = ResourcePackage.decode(path);
+				String mimeType = getResourceMimeType(rp != null ? rp
+						.getResources()[0] : path);
+				result.put(path, new ResourceContent(ResourceUtils
+						.readBinaryUrl(new URL(url, value[0])),
+						isEncodable(mimeType), Long.valueOf(value[1]))
+						.store(contentStore));
+			}
+			precompiled = result;
+			logger.debug("Loaded " + result.size() + " precompiled resources.");
+		} catch (IOException e) {
+			logger.error("Cannot load " + manifest + ".", e);
+		}
+	}
+
+	protected void invalidate(Path path) {
+		for (String uri : resources.keySet()) {
+			Resource resource = resources.peek(uri);
+			if (resource != null
+					&& (path == null || path.equals(resource.getSourcePath()))) {
+				invalidate(uri);
+			}
+		}
+	}
+
+	protected void invalidate(String uri) {
+		Resource resource = resources.peek(uri);
+		if (resource != null) {
+			logger.debug("Invalidating " + uri + ".");
+			resource.invalidate();
+		}
+		for (ResourcePackage rp : packages.keySet()) {
+			if (Arrays.asList(rp.getResources()).contains(uri)) {
+				packages.remove(rp);
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		invalidate((Path) null);
+		packages.clear();
+	}
+
+	public void recompile(Collection<String> uris) {
+		final List<String> paths = new ArrayList<String>(uris);
+		for (String path : paths) {
+			invalidate(path);
+		}
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				for (String path : paths) {
+					try {
+						getContent(path);
+					} catch (Exception e) {
+						logger.error("Cannot recompile " + path + ".", e);
+					}
+				}
+				logger.debug("Recompiled " + paths.size() + " resources.");
+			}
+		}, "lesscss-recompile");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	protected Path getSourcePath(String uri) {
+		Resource resource = resources.peek(uri);
+		return resource != null ? resource.getSourcePath() : null;
+	}
+
+	protected boolean isCached() {
+		return cache || watcher != null;
+	}
+
+	protected void initCompressors() {
+		if (compress) {
+			try {
+				StyleCompressor.init();
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	protected void initCaches() {
+		resources = new ResourceCache<String, Resource>(cacheSize,
+				cacheEntries);
+		packages = new ResourceCache<ResourcePackage, PackageContent>(
+				cacheSize, cacheEntries);
+		if (offHeapBudget > 0) {
+			contentStore = new ContentStore(offHeapThreshold, offHeapBudget,
+					offHeapStorage, null);
 		}
 	}
 
@@ -111,27 +785,156 @@ public class ResourceServlet extends HttpServlet {
 
 	protected Resource getResource(String uri) throws ResourceNotFoundException {
 		String mimeType = getResourceMimeType(uri);
-		if (!resources.containsKey(uri)) {
+		Resource resource = resources.touch(uri);
+		if (resource == null) {
 			if ("text/css".equals(mimeType)) {
-				resources.put(uri, new StyleResource(getServletContext(), uri,
-						charset, cache, compress));
+				resource = new StyleResource(getServletContext(), uri,
+						charset, isCached(), compress);
 			} else if ("text/javascript".equals(mimeType)) {
-				resources.put(uri, new ScriptResource(getServletContext(), uri,
-						charset, cache, compress));
+				resource = new ScriptResource(getServletContext(), uri,
+						charset, isCached(), compress, compilationLevel);
 			} else {
-				resources.put(uri, new Resource(getServletContext(), uri,
-						charset, cache));
+				resource = new Resource(getServletContext(), uri, charset,
+						isCached());
 			}
+			resource = register(uri, resource);
+		}
+		return resource;
+	}
+
+	protected Resource register(String uri, Resource resource) {
+		resource.setArtifactStore(artifactStore);
+		resource.setEncode(isEncodable(getResourceMimeType(uri)));
+		resource.setContentStore(contentStore);
+		resource.setMetrics(metrics);
+		boolean watched = watcher != null && isWatched(uri, resource);
+		if (watcher != null && !watched) {
+			resource.setCache(cache);
+		}
+		Resource existing = resources.putIfAbsent(uri, resource);
+		if (existing != null) {
+			return existing;
+		}
+		if (watched) {
+			watcher.register(resource.getSourcePath());
+		}
+		return resource;
+	}
+
+	protected boolean isWatched(String uri, Resource resource) {
+		return resource.getSourcePath() != null;
+	}
+
+	protected void setTimingMember(String uri) {
+		if (serverTiming) {
+			ServerTiming.setMember(uri);
 		}
-		return resources.get(uri);
 	}
 
 	protected byte[] getResourceContent(String uri) throws Exception {
+		setTimingMember(uri);
 		Resource resource = getResource(uri);
-		return resource.getContent();
+		byte[] content = resource.getContent();
+		resources.setWeight(uri, content.length);
+		return content;
+	}
+
+	protected ResourceContent getResourceEncodedContent(String uri)
+			throws Exception {
+		setTimingMember(uri);
+		Resource resource = getResource(uri);
+		ResourceContent content = resource
+				.getEncodedContent(isEncodable(getResourceMimeType(uri)));
+		resources.setWeight(uri, content.getSize());
+		return content;
+	}
+
+	protected PackageContent getPackageContent(String path, String[] uris,
+			String mimeType) throws Exception {
+		ResourcePackage key = new ResourcePackage(uris);
+		long[] modified = getResourcesLastModified(uris);
+		PackageContent result = packages.touch(key);
+		if (result == null || !result.isValid(modified)) {
+			long start = System.nanoTime();
+			long lastModified = 0;
+			for (long value : modified) {
+				lastModified = Math.max(lastModified, value);
+			}
+			ResourceContent content = null;
+			if (compress && packageCompilation
+					&& "text/javascript".equals(mimeType)) {
+				content = getPackageScriptContent(path, uris,
+						isEncodable(mimeType), lastModified);
+			}
+			if (content == null) {
+				byte[][] contents = new byte[uris.length][];
+				for (int i = 0; i < uris.length; i++) {
+					contents[i] = getResourceContent(uris[i]);
+				}
+				content = new ResourceContent(mergeContent(contents),
+						isEncodable(mimeType), lastModified);
+			}
+			result = new PackageContent(content.store(contentStore), mimeType,
+					modified, (System.nanoTime() - start) / 1000000);
+			packages.put(key, result, result.getContent().getSize());
+		}
+		return result;
+	}
+
+	protected ResourceContent getPackageScriptContent(String path,
+			String[] uris, boolean encode, long lastModified) throws Exception {
+		setTimingMember(path);
+		ScriptResource[] members = new ScriptResource[uris.length];
+		for (int i = 0; i < uris.length; i++) {
+			Resource resource = getResource(uris[i]);
+			if (!(resource instanceof ScriptResource)) {
+				return null;
+			}
+			members[i] = (ScriptResource) resource;
+		}
+		String key = null;
+		if (artifactStore != null) {
+			StringBuilder sb = new StringBuilder("package");
+			for (ScriptResource member : members) {
+				sb.append("\n");
+				sb.append(member.getSourceKey());
+			}
+			key = artifactStore.getKey(sb.toString());
+			ResourceContent stored = artifactStore.get(key, lastModified);
+			if (stored != null) {
+				return stored;
+			}
+		}
+		boolean stored = false;
+		try {
+			byte[][] sources = new byte[uris.length][];
+			for (int i = 0; i < uris.length; i++) {
+				sources[i] = members[i].getSource();
+			}
+			long start = metrics.start();
+			byte[] compiled = ScriptResource.compile(uris, sources, charset,
+					compilationLevel, compilerThreads);
+			metrics.record(ResourceMetrics.CLOSURE, start);
+			if (compiled == null) {
+				logger.error("Cannot compile package " + path + ".");
+				return null;
+			}
+			ResourceContent content = new ResourceContent(compiled, encode,
+					lastModified);
+			if (key != null) {
+				artifactStore.put(key, content);
+			}
+			stored = true;
+			return content;
+		} finally {
+			if (key != null && !stored) {
+				artifactStore.release(key);
+			}
+		}
 	}
 
 	protected long getResourceLastModified(String uri) throws IOException {
+		setTimingMember(uri);
 		Resource resource = getResource(uri);
 		return resource.getLastModified();
 	}
@@ -143,78 +946,536 @@ public class ResourceServlet extends HttpServlet {
 		return mimeType != null ? mimeType : "application/octet-stream";
 	}
 
+	protected boolean isEncodable(String mimeType) {
+		return encode && isText(mimeType);
+	}
+
+	protected boolean isText(String mimeType) {
+		return mimeType.startsWith("text/") || mimeType.endsWith("+xml")
+				|| mimeType.endsWith("javascript");
+	}
+
+	protected File getStreamableFile(String uri, String mimeType)
+			throws IOException {
+		if (streamThreshold < 0 || isText(mimeType)) {
+			return null;
+		}
+		Resource resource = getResource(uri);
+		return resource.getSourceLength() > streamThreshold ? resource
+				.getSourceFile() : null;
+	}
+
 	protected byte[] mergeContent(byte[] c1, byte[] c2)
 			throws UnsupportedEncodingException {
-		byte[] line = "\n".getBytes(charset);
-		int l1 = c1.length;
-		int l2 = l1 != 0 ? line.length : 0;
-		int l3 = c2.length;
-		byte[] result = new byte[l1 + l2 + l3];
+		return c1.length != 0 ? mergeContent(new byte[][] { c1, c2 }) : c2;
+	}
 
-		for (int i = 0; i < l1; i++) {
-			result[i] = c1[i];
+	protected byte[] mergeContent(byte[][] contents)
+			throws UnsupportedEncodingException {
+		byte[] line = "\n".getBytes(charset);
+		int length = 0;
+		for (int i = 0; i < contents.length; i++) {
+			length += (i != 0 ? line.length : 0) + contents[i].length;
 		}
-		for (int i = 0; i < l2; i++) {
-			result[i + l1] = line[i];
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (int i = 0; i < contents.length; i++) {
+			if (i != 0) {
+				System.arraycopy(line, 0, result, offset, line.length);
+				offset += line.length;
+			}
+			System.arraycopy(contents[i], 0, result, offset,
+					contents[i].length);
+			offset += contents[i].length;
 		}
-		for (int i = 0; i < l3; i++) {
-			result[i + l1 + l2] = c2[i];
+		return result;
+	}
+
+	protected long[] getResourcesLastModified(String[] uris)
+			throws IOException {
+		long[] result = new long[uris.length];
+		for (int i = 0; i < uris.length; i++) {
+			result[i] = getResourceLastModified(uris[i]);
 		}
 		return result;
 	}
 
-	public void service(HttpServletRequest request, HttpServletResponse response)
-			throws ServletException {
+	protected long getLastModified(String[] uris) throws IOException {
+		long lastModified = 0;
+		for (long value : getResourcesLastModified(uris)) {
+			lastModified = Math.max(lastModified, value);
+		}
+		return lastModified;
+	}
+
+	protected ResourceContent getContent(String packagePath, String[] uris,
+			String mimeType, long lastModified) throws Exception {
+		if (packagePath == null) {
+			return getResourceEncodedContent(uris[0]);
+		}
+		return getPackageContent(packagePath, uris, mimeType).getContent();
+	}
+
+	protected ResourceContent getCachedContent(String packagePath,
+			String[] uris, long lastModified) throws IOException {
+		if (packagePath == null) {
+			return getResource(uris[0]).peekEncodedContent(lastModified);
+		}
+		PackageContent result = packages.get(new ResourcePackage(uris));
+		if (result != null && result.isValid(getResourcesLastModified(uris))) {
+			result.hit();
+			return result.getContent();
+		}
+		return null;
+	}
+
+	protected ResourceContent getContent(String path) throws Exception {
+		ResourcePackage rp = ResourcePackage.decode(path);
+		String[] uris = rp != null ? rp.getResources() : new String[] { path };
+		return getContent(rp != null ? path : null, uris,
+				getResourceMimeType(uris[0]), getLastModified(uris));
+	}
+
+	public void service(final HttpServletRequest request,
+			final HttpServletResponse response) throws ServletException {
+		final ServerTiming timing = serverTiming ? ServerTiming.start() : null;
+		boolean detached = false;
 		try {
-			ResourcePackage rp = ResourcePackage.fromString(request
+			ResourcePackage rp = ResourcePackage.decode(request
 					.getPathInfo());
 			String[] uri = (rp != null) ? rp.getResources()
 					: new String[] { (request.getContextPath()
 							+ request.getServletPath() + (request.getPathInfo() == null ? ""
 							: request.getPathInfo())) };
-			String mimeType = getResourceMimeType(uri[0]);
-			long lastModified = 0;
-			byte[] content = new byte[0];
-			for (String resource : uri) {
-				resource = resource.replaceAll("^" + request.getContextPath(),
+			final String[] members = new String[uri.length];
+			for (int i = 0; i < uri.length; i++) {
+				members[i] = uri[i].replaceAll("^" + request.getContextPath(),
 						"");
-				try {
-					content = mergeContent(content,
-							getResourceContent(resource));
-				} catch (IOException e) {
-					logger.error("Cannot find " + resource + ".");
-					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			}
+			final String mimeType = getResourceMimeType(members[0]);
+			final String packagePath = rp != null ? request.getPathInfo()
+					: null;
+			ResourceContent content = precompiled.get(packagePath != null
+					? packagePath : members[0]);
+			if (content != null) {
+				metrics.contentHit();
+				write(request, response, content, mimeType,
+						content.getLastModified());
+				return;
+			}
+			for (String member : members) {
+				resources.get(member);
+			}
+			final long lastModified;
+			try {
+				File file = packagePath == null ? getStreamableFile(
+						members[0], mimeType) : null;
+				if (file != null) {
+					writeFile(request, response, file, mimeType,
+							getLastModified(members));
 					return;
 				}
-				lastModified = Math.max(lastModified,
-						getResourceLastModified(resource));
-			}
-			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
-			if (ifModifiedSince != 0
-					&& ifModifiedSince / milliseconds == lastModified
-							/ milliseconds) {
-				logger.debug("Return with SC_NOT_MODIFIED, since "
-						+ ifModifiedSince + " == " + lastModified);
-				response.setHeader("Cache-control", "max-age=" + maxAge);
-				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				lastModified = getLastModified(members);
+				content = getCachedContent(packagePath, members, lastModified);
+			} catch (IOException e) {
+				logger.error("Cannot find "
+						+ (packagePath != null ? packagePath : members[0])
+						+ ".");
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 				return;
 			}
-			if (cache) {
-				maxAge = 0;
+			if (isNotModified(request, response, content, mimeType,
+					lastModified)) {
+				return;
 			}
-			response.setContentType(mimeType
-					+ (mimeType.startsWith("text/") ? ";charset=" + charset
-							: ""));
-			response.setDateHeader("Last-Modified", lastModified);
-			response.setDateHeader("Expires", System.currentTimeMillis()
-					+ maxAge * milliseconds);
-			response.setHeader("Cache-control", "max-age=" + maxAge);
-			response.setContentLength(content.length);
-			response.getOutputStream().write(content);
-			response.getOutputStream().flush();
-			response.getOutputStream().close();
+			if (content != null) {
+				metrics.contentHit();
+				write(request, response, content, mimeType, lastModified);
+				return;
+			}
+			metrics.contentMiss();
+			if (executor != null && request.isAsyncSupported()) {
+				final AsyncContext asyncContext = request.startAsync();
+				final AtomicBoolean completed = new AtomicBoolean();
+				asyncContext.setTimeout(asyncTimeout);
+				asyncContext.addListener(new AsyncListener() {
+					public void onComplete(AsyncEvent event) {
+						completed.set(true);
+					}
+
+					public void onTimeout(AsyncEvent event) {
+						if (completed.compareAndSet(false, true)) {
+							metrics.asyncTimeout();
+							logger.warn("Timed out processing "
+									+ request.getRequestURI() + ".");
+							response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+							complete(asyncContext);
+						}
+					}
+
+					public void onError(AsyncEvent event) {
+						if (completed.compareAndSet(false, true)) {
+							metrics.asyncError();
+							logger.error("Error processing "
+									+ request.getRequestURI() + ".",
+									event.getThrowable());
+							complete(asyncContext);
+						}
+					}
+
+					public void onStartAsync(AsyncEvent event) {
+					}
+				});
+				detached = true;
+				Runnable task = new Runnable() {
+					public void run() {
+						if (timing != null) {
+							ServerTiming.resume(timing);
+						}
+						ResourceContent content = null;
+						int status = HttpServletResponse.SC_OK;
+						boolean owner = false;
+						try {
+							if (completed.get()) {
+								return;
+							}
+							try {
+								content = getContent(packagePath, members,
+										mimeType, lastModified);
+							} catch (IOException e) {
+								logger.error("Cannot find "
+										+ (packagePath != null ? packagePath
+												: members[0]) + ".");
+								status = HttpServletResponse.SC_NOT_FOUND;
+							} catch (Exception e) {
+								logger.error(e.getMessage(), e);
+								status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+							}
+							if (!completed.compareAndSet(false, true)) {
+								logger.debug("Dropping result for "
+										+ request.getRequestURI()
+										+ ", the request has already completed.");
+								return;
+							}
+							owner = true;
+							try {
+								if (content != null) {
+									write(request, response, content,
+											mimeType, lastModified);
+								} else {
+									response.setStatus(status);
+								}
+							} catch (Exception e) {
+								logger.error(e.getMessage(), e);
+							} finally {
+								complete(asyncContext);
+							}
+						} finally {
+							if (timing != null) {
+								ServerTiming.clear();
+								if (owner) {
+									log(request, response, timing);
+								}
+							}
+						}
+					}
+				};
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					logger.debug("Compile executor saturated, processing "
+							+ request.getRequestURI() + " synchronously.");
+					task.run();
+				}
+				return;
+			}
+			process(request, response, packagePath, members, mimeType,
+					lastModified);
 		} catch (Exception e) {
 			throw new ServletException(e.getMessage(), e);
+		} finally {
+			if (timing != null) {
+				ServerTiming.clear();
+				if (!detached) {
+					log(request, response, timing);
+				}
+			}
+		}
+	}
+
+	protected void complete(AsyncContext asyncContext) {
+		try {
+			asyncContext.complete();
+		} catch (IllegalStateException e) {
+			logger.debug("Request already completed by the container.");
+		}
+	}
+
+	protected void log(HttpServletRequest request,
+			HttpServletResponse response, ServerTiming timing) {
+		if (timingLog && logger.isInfoEnabled()) {
+			logger.info("uri=" + request.getRequestURI() + " status="
+					+ response.getStatus() + " " + timing);
+		}
+	}
+
+	protected void process(HttpServletRequest request,
+			HttpServletResponse response, String packagePath,
+			String[] members, String mimeType, long lastModified)
+			throws Exception {
+		ResourceContent content;
+		try {
+			content = getContent(packagePath, members, mimeType, lastModified);
+		} catch (IOException e) {
+			logger.error("Cannot find "
+					+ (packagePath != null ? packagePath : members[0]) + ".");
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		write(request, response, content, mimeType, lastModified);
+	}
+
+	protected boolean isNotModified(HttpServletRequest request,
+			HttpServletResponse response, ResourceContent resourceContent,
+			String mimeType, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		if (ifNoneMatch != null ? resourceContent != null
+				&& resourceContent.matches(ifNoneMatch) : ifModifiedSince != 0
+				&& ifModifiedSince / milliseconds == lastModified
+						/ milliseconds) {
+			logger.debug("Return with SC_NOT_MODIFIED, since "
+					+ (ifNoneMatch != null ? ifNoneMatch + " matches" : ifModifiedSince
+							+ " == " + lastModified));
+			if (resourceContent != null ? resourceContent.isEncoded()
+					: isEncodable(mimeType)) {
+				response.setHeader("Vary", "Accept-Encoding");
+			}
+			if (resourceContent != null) {
+				response.setHeader("ETag", resourceContent
+						.getETag(resourceContent.getEncoding(request
+								.getHeader("Accept-Encoding"))));
+			}
+			response.setHeader("Cache-control", "max-age=" + maxAge);
+			setServerTiming(response);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			metrics.notModified();
+			return true;
+		}
+		return false;
+	}
+
+	protected void write(HttpServletRequest request,
+			HttpServletResponse response, ResourceContent resourceContent,
+			String mimeType, long lastModified) throws IOException {
+		if (isNotModified(request, response, resourceContent, mimeType,
+				lastModified)) {
+			return;
+		}
+		String encoding = request.getHeader("Range") == null ? resourceContent
+				.getEncoding(request.getHeader("Accept-Encoding")) : null;
+		String etag = resourceContent.getETag(encoding);
+		if (cache) {
+			maxAge = 0;
+		}
+		String contentType = mimeType
+				+ (mimeType.startsWith("text/") ? ";charset=" + charset : "");
+		response.setContentType(contentType);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Expires", System.currentTimeMillis() + maxAge
+				* milliseconds);
+		response.setHeader("Cache-control", "max-age=" + maxAge);
+		if (resourceContent.isEncoded()) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+		if (encoding != null) {
+			response.setHeader("Content-Encoding", encoding);
+		}
+		ByteBuffer buffer = resourceContent.getBuffer(encoding);
+		writeContent(request, response, contentType, etag, lastModified,
+				buffer, null, buffer.remaining());
+	}
+
+	protected void writeFile(HttpServletRequest request,
+			HttpServletResponse response, File file, String mimeType,
+			long lastModified) throws IOException {
+		long length = file.length();
+		String etag = "\"" + Long.toHexString(lastModified) + "."
+				+ Long.toHexString(length) + "\"";
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		if (ifNoneMatch != null ? ifNoneMatch.equals("*")
+				|| ifNoneMatch.replace("W/", "").contains(etag)
+				: ifModifiedSince != 0
+						&& ifModifiedSince / milliseconds == lastModified
+								/ milliseconds) {
+			response.setHeader("ETag", etag);
+			response.setHeader("Cache-control", "max-age=" + maxAge);
+			setServerTiming(response);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			metrics.notModified();
+			return;
+		}
+		if (cache) {
+			maxAge = 0;
+		}
+		response.setContentType(mimeType);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Expires", System.currentTimeMillis() + maxAge
+				* milliseconds);
+		response.setHeader("Cache-control", "max-age=" + maxAge);
+		FileInputStream input = new FileInputStream(file);
+		try {
+			writeContent(request, response, mimeType, etag, lastModified,
+					null, input.getChannel(), length);
+		} finally {
+			input.close();
+		}
+	}
+
+	protected void writeContent(HttpServletRequest request,
+			HttpServletResponse response, String contentType, String etag,
+			long lastModified, ByteBuffer buffer, FileChannel channel,
+			long length) throws IOException {
+		response.setHeader("Accept-Ranges", "bytes");
+		setServerTiming(response);
+		List<ByteRange> ranges = null;
+		if (isRangeSatisfied(request, etag, lastModified)) {
+			ranges = ByteRange.parse(request.getHeader("Range"), length);
+			if (ranges != null && ranges.isEmpty()) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+		boolean head = "HEAD".equals(request.getMethod());
+		String mimeType = contentType.indexOf(';') != -1 ? contentType
+				.substring(0, contentType.indexOf(';')) : contentType;
+		if (ranges == null) {
+			response.setHeader("Content-Length", String.valueOf(length));
+			if (!head) {
+				long start = System.nanoTime();
+				OutputStream out = response.getOutputStream();
+				transfer(out, buffer, channel, 0, length);
+				out.close();
+				recordWrite(start);
+			}
+			metrics.served(mimeType, head ? 0 : length);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.setHeader("Content-Range", range.getContentRange(length));
+			response.setHeader("Content-Length",
+					String.valueOf(range.getLength()));
+			if (!head) {
+				long start = System.nanoTime();
+				OutputStream out = response.getOutputStream();
+				transfer(out, buffer, channel, range.getStart(),
+						range.getLength());
+				out.close();
+				recordWrite(start);
+			}
+			metrics.served(mimeType, head ? 0 : range.getLength());
+			return;
+		}
+		String boundary = Long.toHexString(System.nanoTime())
+				+ Long.toHexString(lastModified);
+		byte[][] headers = new byte[ranges.size()][];
+		long total = 0;
+		for (int i = 0; i < headers.length; i++) {
+			headers[i] = ("\r\n--" + boundary + "\r\nContent-Type: "
+					+ contentType + "\r\nContent-Range: "
+					+ ranges.get(i).getContentRange(length) + "\r\n\r\n")
+					.getBytes("ISO-8859-1");
+			total += headers[i].length + ranges.get(i).getLength();
+		}
+		byte[] footer = ("\r\n--" + boundary + "--\r\n")
+				.getBytes("ISO-8859-1");
+		total += footer.length;
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setHeader("Content-Length", String.valueOf(total));
+		if (!head) {
+			long start = System.nanoTime();
+			OutputStream out = response.getOutputStream();
+			for (int i = 0; i < headers.length; i++) {
+				out.write(headers[i]);
+				transfer(out, buffer, channel, ranges.get(i).getStart(),
+						ranges.get(i).getLength());
+			}
+			out.write(footer);
+			out.close();
+			recordWrite(start);
+		}
+		metrics.served(mimeType, head ? 0 : total);
+	}
+
+	protected void setServerTiming(HttpServletResponse response) {
+		if (serverTiming) {
+			ServerTiming timing = ServerTiming.get();
+			if (timing != null) {
+				response.setHeader("Server-Timing", timing.toHeader());
+			}
+		}
+	}
+
+	protected void recordWrite(long start) {
+		if (serverTiming) {
+			ServerTiming.setMember(null);
+			ServerTiming.record(ServerTiming.WRITE, System.nanoTime() - start);
+		}
+	}
+
+	protected boolean isRangeSatisfied(HttpServletRequest request,
+			String etag, long lastModified) {
+		if (request.getHeader("Range") == null) {
+			return false;
+		}
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(etag);
+		}
+		try {
+			long date = request.getDateHeader("If-Range");
+			return lastModified / milliseconds <= date / milliseconds;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static void transfer(OutputStream out, ByteBuffer buffer,
+			FileChannel channel, long position, long count) throws IOException {
+		WritableByteChannel target = Channels.newChannel(out);
+		if (buffer != null) {
+			ByteBuffer slice = buffer.duplicate();
+			slice.position((int) position);
+			slice.limit((int) (position + count));
+			if (slice.hasArray()) {
+				out.write(slice.array(), slice.arrayOffset() + slice.position(),
+						slice.remaining());
+				return;
+			}
+			while (slice.hasRemaining()) {
+				target.write(slice);
+			}
+			return;
+		}
+		// The servlet stream is not a channel, so this streams the file in
+		// chunks without buffering it whole rather than copying zero-copy.
+		long end = position + count;
+		while (position < end) {
+			long transferred = channel.transferTo(position, end - position,
+					target);
+			if (transferred <= 0) {
+				throw new EOFException("Unexpected end of " + channel + ".");
+			}
+			position += transferred;
 		}
 	}
-}
+}
\ No newline at end of file
@@ -15,15 +15,18 @@
 package com.asual.lesscss;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PushbackInputStream;
-import java.io.Reader;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,70 +40,37 @@ public class ResourceUtils {
 
 	public static byte[] readTextUrl(URL source, String encoding)
 			throws IOException {
-		byte[] result;
-		try {
-			URLConnection urlc = source.openConnection();
-			StringBuffer sb = new StringBuffer(1024);
-			InputStream input = urlc.getInputStream();
-			UnicodeReader reader = new UnicodeReader(input, encoding);
-			try {
-				char[] cbuf = new char[32];
-				int r;
-				while ((r = reader.read(cbuf, 0, 32)) != -1) {
-					sb.append(cbuf, 0, r);
-				}
-				result = sb.toString().getBytes(reader.getEncoding());
-			} finally {
-				reader.close();
-				input.close();
-			}
-		} catch (IOException e) {
-			logger.error("Can't read '" + source.getFile() + "'.");
-			throw e;
-		}
-		return result;
+		return toText(readBinaryUrl(source), encoding);
 	}
 
 	public static byte[] readTextFile(File source, String encoding)
 			throws IOException {
-		byte[] result;
-		try {
-			StringBuffer sb = new StringBuffer(1024);
-			FileInputStream input = new FileInputStream(source);
-			UnicodeReader reader = new UnicodeReader(input, encoding);
-			try {
-				char[] cbuf = new char[32];
-				int r;
-				while ((r = reader.read(cbuf, 0, 32)) != -1) {
-					sb.append(cbuf, 0, r);
-				}
-				result = sb.toString().getBytes(reader.getEncoding());
-			} finally {
-				reader.close();
-				input.close();
-			}
-		} catch (IOException e) {
-			logger.error("Can't read '" + source.getAbsolutePath() + "'.");
-			throw e;
-		}
-		return result;
+		return toText(readBinaryFile(source), encoding);
 	}
 
 	public static byte[] readBinaryUrl(URL source) throws IOException {
+		if ("file".equals(source.getProtocol())) {
+			try {
+				return readBinaryFile(new File(source.toURI()));
+			} catch (URISyntaxException e) {
+			} catch (IllegalArgumentException e) {
+			}
+		}
 		byte[] result;
 		try {
 			URLConnection urlc = source.openConnection();
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+			int length = urlc.getContentLength();
+			ByteArrayOutputStream byteStream = new ByteArrayOutputStream(
+					length > 0 ? length : 8192);
 			InputStream input = urlc.getInputStream();
 			try {
-				byte[] buffer = new byte[1024];
+				byte[] buffer = new byte[8192];
 				int bytesRead = -1;
 				while ((bytesRead = input.read(buffer)) != -1) {
 					byteStream.write(buffer, 0, bytesRead);
 				}
 				result = byteStream.toByteArray();
 			} finally {
-				byteStream.close();
 				input.close();
 			}
 		} catch (IOException e) {
@@ -111,124 +81,92 @@ public class ResourceUtils {
 	}
 
 	public static byte[] readBinaryFile(File source) throws IOException {
-		byte[] result;
 		try {
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
 			FileInputStream input = new FileInputStream(source);
 			try {
-				byte[] buffer = new byte[1024];
-				int bytesRead = -1;
-				while ((bytesRead = input.read(buffer)) != -1) {
-					byteStream.write(buffer, 0, bytesRead);
+				FileChannel channel = input.getChannel();
+				long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("File is too large.");
 				}
-				result = byteStream.toByteArray();
+				byte[] result = new byte[(int) size];
+				ByteBuffer buffer = ByteBuffer.wrap(result);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) == -1) {
+						throw new EOFException("Unexpected end of file.");
+					}
+				}
+				return result;
 			} finally {
-				byteStream.close();
 				input.close();
 			}
 		} catch (IOException e) {
 			logger.error("Can't read '" + source.getAbsolutePath() + "'.");
 			throw e;
 		}
-		return result;
 	}
 
 	/**
-	 * Generic unicode textreader, which will use BOM mark to identify the
-	 * encoding to be used. If BOM is not found then use a given default or
-	 * system encoding.
-	 * 
-	 * @author Thomas Weidenfeller
-	 * @author Aki Nieminen
+	 * Strips a byte order mark and converts the content to the given charset.
+	 * Content without a BOM is assumed to be in that charset already and is
+	 * returned as is.
 	 */
-	private static class UnicodeReader extends Reader {
-
-		PushbackInputStream internalIn;
-		InputStreamReader internalIn2 = null;
-		String defaultEnc;
-
-		private static final int BOM_SIZE = 4;
-
-		/**
-		 * @param in
-		 *            inputstream to be read
-		 * @param defaultEnc
-		 *            default encoding if stream does not have BOM marker. Give
-		 *            NULL to use system-level default.
-		 */
-		public UnicodeReader(InputStream in, String defaultEnc) {
-			internalIn = new PushbackInputStream(in, BOM_SIZE);
-			this.defaultEnc = defaultEnc;
+	public static byte[] toText(byte[] content, String encoding) {
+		Charset target = encoding != null ? Charset.forName(encoding)
+				: Charset.defaultCharset();
+		int length = getBomLength(content);
+		if (length == 0) {
+			return content;
 		}
-
-		/**
-		 * Get stream encoding or NULL if stream is uninitialized. Call init()
-		 * or read() method to initialize it.
-		 */
-		public String getEncoding() {
-			if (internalIn2 == null)
-				return null;
-			return internalIn2.getEncoding();
+		Charset source = Charset.forName(getBomEncoding(content));
+		if (source.equals(target)) {
+			return Arrays.copyOfRange(content, length, content.length);
 		}
+		return new String(content, length, content.length - length, source)
+				.getBytes(target);
+	}
 
-		/**
-		 * Read-ahead four bytes and check for BOM marks. Extra bytes are unread
-		 * back to the stream, only BOM bytes are skipped.
-		 */
-		protected void init() throws IOException {
-
-			if (internalIn2 != null)
-				return;
-
-			String encoding;
-			byte bom[] = new byte[BOM_SIZE];
-			int n, unread;
-			n = internalIn.read(bom, 0, bom.length);
-
-			if ((bom[0] == (byte) 0x00) && (bom[1] == (byte) 0x00)
-					&& (bom[2] == (byte) 0xFE) && (bom[3] == (byte) 0xFF)) {
-				encoding = "UTF-32BE";
-				unread = n - 4;
-			} else if ((bom[0] == (byte) 0xFF) && (bom[1] == (byte) 0xFE)
-					&& (bom[2] == (byte) 0x00) && (bom[3] == (byte) 0x00)) {
-				encoding = "UTF-32LE";
-				unread = n - 4;
-			} else if ((bom[0] == (byte) 0xEF) && (bom[1] == (byte) 0xBB)
-					&& (bom[2] == (byte) 0xBF)) {
-				encoding = "UTF-8";
-				unread = n - 3;
-			} else if ((bom[0] == (byte) 0xFE) && (bom[1] == (byte) 0xFF)) {
-				encoding = "UTF-16BE";
-				unread = n - 2;
-			} else if ((bom[0] == (byte) 0xFF) && (bom[1] == (byte) 0xFE)) {
-				encoding = "UTF-16LE";
-				unread = n - 2;
-			} else {
-				// Unicode BOM mark not found, unread all bytes
-				encoding = defaultEnc;
-				unread = n;
-			}
-
-			if (unread > 0)
-				internalIn.unread(bom, (n - unread), unread);
+	/**
+	 * Decodes content in a single pass, honouring a byte order mark.
+	 */
+	public static String decodeText(byte[] content, String encoding) {
+		int length = getBomLength(content);
+		Charset charset = length != 0 ? Charset
+				.forName(getBomEncoding(content)) : encoding != null ? Charset
+				.forName(encoding) : Charset.defaultCharset();
+		return new String(content, length, content.length - length, charset);
+	}
 
-			// Use given encoding
-			if (encoding == null) {
-				internalIn2 = new InputStreamReader(internalIn);
-			} else {
-				internalIn2 = new InputStreamReader(internalIn, encoding);
-			}
+	private static String getBomEncoding(byte[] bom) {
+		if (bom.length >= 4 && bom[0] == (byte) 0x00 && bom[1] == (byte) 0x00
+				&& bom[2] == (byte) 0xFE && bom[3] == (byte) 0xFF) {
+			return "UTF-32BE";
 		}
-
-		public void close() throws IOException {
-			init();
-			internalIn2.close();
+		if (bom.length >= 4 && bom[0] == (byte) 0xFF && bom[1] == (byte) 0xFE
+				&& bom[2] == (byte) 0x00 && bom[3] == (byte) 0x00) {
+			return "UTF-32LE";
 		}
-
-		public int read(char[] cbuf, int off, int len) throws IOException {
-			init();
-			return internalIn2.read(cbuf, off, len);
+		if (bom.length >= 3 && bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB
+				&& bom[2] == (byte) 0xBF) {
+			return "UTF-8";
+		}
+		if (bom.length >= 2 && bom[0] == (byte) 0xFE && bom[1] == (byte) 0xFF) {
+			return "UTF-16BE";
+		}
+		if (bom.length >= 2 && bom[0] == (byte) 0xFF && bom[1] == (byte) 0xFE) {
+			return "UTF-16LE";
 		}
+		return null;
+	}
 
+	private static int getBomLength(byte[] bom) {
+		String encoding = getBomEncoding(bom);
+		if (encoding == null) {
+			return 0;
+		}
+		if (encoding.startsWith("UTF-32")) {
+			return 4;
+		}
+		return "UTF-8".equals(encoding) ? 3 : 2;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches the directories of file and jar backed resources and reports
+ * changed paths to a listener, so that cached resources can be invalidated
+ * without polling their timestamps on every request.
+ */
+public class ResourceWatcher implements Runnable {
+
+	public interface Listener {
+
+		/**
+		 * @param path
+		 *            the changed file or <code>null</code> if events were lost
+		 *            and everything should be considered stale
+		 */
+		void changed(Path path);
+	}
+
+	private static final Log logger = LogFactory.getLog(ResourceWatcher.class);
+
+	private final WatchService service;
+	private final Listener listener;
+	private final ConcurrentMap<Path, WatchKey> directories = new ConcurrentHashMap<Path, WatchKey>();
+	private final Thread thread;
+
+	public ResourceWatcher(Listener listener) throws IOException {
+		this.listener = listener;
+		this.service = FileSystems.getDefault().newWatchService();
+		this.thread = new Thread(this, "lesscss-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public static Path getPath(Object source) {
+		try {
+			if (source instanceof File) {
+				return ((File) source).toPath().toRealPath();
+			}
+			if (source instanceof URL) {
+				URL url = (URL) source;
+				if ("file".equals(url.getProtocol())) {
+					return Paths.get(url.toURI()).toRealPath();
+				}
+				if ("jar".equals(url.getProtocol())) {
+					String path = url.getPath();
+					int index = path.indexOf("!/");
+					if (index != -1) {
+						path = path.substring(0, index);
+					}
+					if (path.startsWith("file:")) {
+						return Paths.get(new URI(path)).toRealPath();
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.debug("Cannot resolve path for " + source + ".");
+		}
+		return null;
+	}
+
+	public void register(Path path) {
+		if (path == null || path.getParent() == null) {
+			return;
+		}
+		Path directory = path.getParent();
+		if (!directories.containsKey(directory)) {
+			try {
+				WatchKey key = directory.register(service,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				directories.putIfAbsent(directory, key);
+			} catch (IOException e) {
+				logger.error("Cannot watch " + directory + ".", e);
+			}
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				Path directory = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Path path = null;
+					if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+						path = directory.resolve((Path) event.context());
+						logger.debug("Resource changed: " + path);
+					}
+					try {
+						listener.changed(path);
+					} catch (RuntimeException e) {
+						logger.error(e.getMessage(), e);
+					}
+				}
+				if (!key.reset()) {
+					directories.remove(directory);
+				}
+			}
+		} catch (InterruptedException e) {
+		} catch (ClosedWatchServiceException e) {
+		}
+	}
+
+	public void close() {
+		try {
+			service.close();
+		} catch (IOException e) {
+		}
+		thread.interrupt();
+	}
+}
\ No newline at end of file
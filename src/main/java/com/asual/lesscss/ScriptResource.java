@@ -14,11 +14,9 @@
 
 package com.asual.lesscss;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
@@ -40,54 +38,86 @@ import com.google.javascript.jscomp.Result;
  */
 public class ScriptResource extends Resource {
 
+	private static final Pattern LICENSE = Pattern.compile(
+			"^/\\*.*?\\*/\\s?", Pattern.DOTALL);
+
 	protected boolean compress;
+	protected CompilationLevel compilationLevel;
 
 	public ScriptResource(ServletContext servletContext, String uri,
 			String charset, boolean cache, boolean compress)
 			throws ResourceNotFoundException {
+		this(servletContext, uri, charset, cache, compress,
+				CompilationLevel.SIMPLE_OPTIMIZATIONS);
+	}
+
+	public ScriptResource(ServletContext servletContext, String uri,
+			String charset, boolean cache, boolean compress,
+			CompilationLevel compilationLevel)
+			throws ResourceNotFoundException {
 		super(servletContext, uri, charset, cache);
 		this.compress = compress;
+		this.compilationLevel = compilationLevel;
 	}
 
-	public byte[] getContent() throws IOException {
-		if (content == null
-				|| (content != null && !cache && lastModified < getLastModified())) {
-			content = resource instanceof URL ? ResourceUtils.readTextUrl(
-					(URL) resource, charset) : ResourceUtils.readTextFile(
-					(File) resource, charset);
-			lastModified = getLastModified();
-			if (compress) {
-				compress();
+	public byte[] getSource() throws IOException {
+		return resource instanceof URL ? ResourceUtils.readTextUrl(
+				(URL) resource, charset) : ResourceUtils.readTextFile(
+				(File) resource, charset);
+	}
+
+	protected byte[] load() throws IOException {
+		byte[] result = getSource();
+		if (compress) {
+			long start = metrics != null ? metrics.start() : 0;
+			byte[] compiled = compile(new String[] { path },
+					new byte[][] { result }, charset, compilationLevel, false);
+			if (metrics != null) {
+				metrics.record(ResourceMetrics.CLOSURE, start);
+			}
+			if (compiled != null) {
+				result = compiled;
 			}
 		}
-		return content;
+		return result;
 	}
 
-	private void compress() throws UnsupportedEncodingException, IOException {
+	public static byte[] compile(String[] names, byte[][] sources,
+			String charset, CompilationLevel compilationLevel, boolean threads)
+			throws UnsupportedEncodingException, IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		InputStream is = new ByteArrayInputStream(content);
 		Writer out = new OutputStreamWriter(baos, charset);
+		JSSourceFile[] inputs = new JSSourceFile[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			String source = new String(sources[i], charset);
+			inputs[i] = JSSourceFile.fromCode(names[i], source);
+			Matcher matcher = LICENSE.matcher(source);
+			while (matcher.find()) {
+				out.write(matcher.group());
+			}
+		}
 		CompilerOptions options = new CompilerOptions();
-		CompilationLevel.SIMPLE_OPTIMIZATIONS
-				.setOptionsForCompilationLevel(options);
+		compilationLevel.setOptionsForCompilationLevel(options);
 		Compiler.setLoggingLevel(Level.OFF);
 		Compiler compiler = new Compiler();
-		compiler.disableThreads();
-		Result result = compiler.compile(new JSSourceFile[] {},
-				new JSSourceFile[] { JSSourceFile.fromInputStream("is", is) },
+		if (!threads) {
+			compiler.disableThreads();
+		}
+		Result result = compiler.compile(new JSSourceFile[] {}, inputs,
 				options);
-		if (result.success) {
-			Pattern pattern = Pattern.compile("^/\\*.*?\\*/\\s?",
-					Pattern.DOTALL);
-			Matcher matcher = pattern.matcher(new String(content, charset));
-			while (matcher.find()) {
-				out.write(matcher.group());
+		try {
+			if (result.success) {
+				out.write(compiler.toSource());
+				out.flush();
+				return baos.toByteArray();
 			}
-			out.write(compiler.toSource());
-			out.flush();
-			content = baos.toByteArray();
+			return null;
+		} finally {
+			out.close();
 		}
-		is.close();
-		out.close();
+	}
+
+	protected String getSourceKey() throws IOException {
+		return getSourceDigest();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-request recorder of phase timings, bound to the processing thread and
+ * fed by the {@link ResourceMetrics} hooks. Durations are accumulated per
+ * phase and package member.
+ */
+public class ServerTiming {
+
+	public static final String WRITE = "write";
+	public static final String TOTAL = "total";
+
+	private static final ThreadLocal<ServerTiming> current = new ThreadLocal<ServerTiming>();
+
+	private final long start = System.nanoTime();
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private String member;
+
+	public static ServerTiming start() {
+		ServerTiming timing = new ServerTiming();
+		current.set(timing);
+		return timing;
+	}
+
+	public static void resume(ServerTiming timing) {
+		current.set(timing);
+	}
+
+	public static void clear() {
+		current.remove();
+	}
+
+	public static ServerTiming get() {
+		return current.get();
+	}
+
+	public static void setMember(String member) {
+		ServerTiming timing = current.get();
+		if (timing != null) {
+			timing.member = member;
+		}
+	}
+
+	public static void record(String phase, long nanos) {
+		ServerTiming timing = current.get();
+		if (timing != null) {
+			timing.add(phase, nanos);
+		}
+	}
+
+	synchronized void add(String phase, long nanos) {
+		String key = member != null ? phase + " " + member : phase;
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(phase, member);
+			entries.put(key, entry);
+		}
+		entry.nanos += nanos;
+	}
+
+	public long getElapsed() {
+		return System.nanoTime() - start;
+	}
+
+	public synchronized String toHeader() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry entry : entries.values()) {
+			sb.append(entry.phase);
+			sb.append(";dur=");
+			sb.append(format(entry.nanos));
+			if (entry.member != null) {
+				sb.append(";desc=\"");
+				sb.append(entry.member.replaceAll("[\"\\\\]", ""));
+				sb.append("\"");
+			}
+			sb.append(", ");
+		}
+		sb.append(TOTAL);
+		sb.append(";dur=");
+		sb.append(format(getElapsed()));
+		return sb.toString();
+	}
+
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(TOTAL);
+		sb.append("=");
+		sb.append(format(getElapsed()));
+		for (Entry entry : entries.values()) {
+			sb.append(" ");
+			sb.append(entry.phase);
+			if (entry.member != null) {
+				sb.append("[");
+				sb.append(entry.member);
+				sb.append("]");
+			}
+			sb.append("=");
+			sb.append(format(entry.nanos));
+		}
+		return sb.toString();
+	}
+
+	private static String format(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000.0);
+	}
+
+	private static class Entry {
+
+		final String phase;
+		final String member;
+		long nanos;
+
+		Entry(String phase, String member) {
+			this.phase = phase;
+			this.member = member;
+		}
+	}
+}
\ No newline at end of file
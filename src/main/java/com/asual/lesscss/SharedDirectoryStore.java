@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link ArtifactStore} on a directory shared by the nodes of a cluster. The
+ * first node that misses a key creates a lock file and compiles, the others
+ * wait for the artifact to appear and fall back to compiling themselves when
+ * the lock is not released within the timeout. A lock older than the stale
+ * age is taken over; its age is measured against a probe file written to the
+ * same directory at most once a minute, so clock skew between the nodes does
+ * not matter. Artifacts are written with an atomic rename, so a reader never
+ * sees a partial file.
+ * <p>
+ * Entries are never removed, since their keys change with the sources. The
+ * growth of the directory has to be managed externally, for example by a job
+ * that deletes files not accessed for a while.
+ */
+public class SharedDirectoryStore extends DiskCache {
+
+	private static final Log logger = LogFactory
+			.getLog(SharedDirectoryStore.class);
+	private static final long POLL = 100L;
+	private static final String CLOCK = ".clock";
+	private static final long CLOCK_INTERVAL = 60000L;
+
+	private final long timeout;
+	private final long staleAge;
+	private volatile long clockOffset;
+	private volatile long clockSampled;
+	private final Set<String> locks = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public SharedDirectoryStore(File directory, String options, long timeout)
+			throws IOException {
+		this(directory, options, timeout, Math.max(timeout, 300000L));
+	}
+
+	public SharedDirectoryStore(File directory, String options, long timeout,
+			long staleAge) throws IOException {
+		super(directory, options);
+		this.timeout = timeout;
+		this.staleAge = staleAge;
+	}
+
+	public ResourceContent get(String key, long lastModified) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			ResourceContent content = super.get(key, lastModified);
+			if (content != null) {
+				return content;
+			}
+			if (lock(key)) {
+				content = super.get(key, lastModified);
+				if (content != null) {
+					release(key);
+				}
+				return content;
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				logger.debug("Timed out waiting for " + key + ".");
+				return null;
+			}
+			try {
+				Thread.sleep(POLL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+
+	public void put(String key, ResourceContent content) {
+		try {
+			super.put(key, content);
+		} finally {
+			release(key);
+		}
+	}
+
+	public void release(String key) {
+		if (locks.remove(key)) {
+			getLock(key).delete();
+		}
+	}
+
+	protected boolean lock(String key) {
+		File lock = getLock(key);
+		try {
+			if (!lock.createNewFile()) {
+				long modified = lock.lastModified();
+				if (modified == 0 || modified >= getTime() - staleAge) {
+					return false;
+				}
+				logger.debug("Removing stale lock " + lock + ".");
+				lock.delete();
+				if (!lock.createNewFile()) {
+					return false;
+				}
+			}
+			locks.add(key);
+			return true;
+		} catch (IOException e) {
+			logger.error("Cannot create " + lock + ".", e);
+		}
+		return false;
+	}
+
+	protected long getTime() throws IOException {
+		long now = System.currentTimeMillis();
+		if (clockSampled == 0 || now - clockSampled > CLOCK_INTERVAL) {
+			File clock = new File(getDirectory(), CLOCK);
+			OutputStream out = new FileOutputStream(clock);
+			try {
+				out.write(0);
+			} finally {
+				out.close();
+			}
+			long time = clock.lastModified();
+			clockOffset = time != 0 ? time - now : 0;
+			clockSampled = now;
+		}
+		return now + clockOffset;
+	}
+
+	private File getLock(String key) {
+		return new File(getDirectory(), key + ".lock");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over padded cells so that threads on different cores
+ * rarely update the same cache line.
+ */
+public class StripedCounter {
+
+	private static final int PADDING = 16;
+	private static final int STRIPES;
+	static {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES
+			* PADDING);
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long value) {
+		cells.getAndAdd(
+				(int) (Thread.currentThread().getId() & (STRIPES - 1))
+						* PADDING, value);
+	}
+
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Shared cssmin runtime. The script is compiled once into a sealed scope and
+ * every minification borrows a lightweight instance scope from a small pool.
+ */
+public class StyleCompressor {
+
+	private static final int POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final Queue<Scriptable> pool = new ConcurrentLinkedQueue<Scriptable>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+	private static volatile ScriptableObject sharedScope;
+	private static volatile Script script;
+
+	public static synchronized void init() throws IOException {
+		if (script != null) {
+			return;
+		}
+		URL cssmin = StyleCompressor.class.getClassLoader().getResource(
+				"META-INF/cssmin.js");
+		if (cssmin == null) {
+			throw new IOException("Can't find META-INF/cssmin.js.");
+		}
+		Context cx = Context.enter();
+		try {
+			cx.setOptimizationLevel(9);
+			ScriptableObject scope = cx.initStandardObjects(null, true);
+			scope.sealObject();
+			Reader reader = new InputStreamReader(cssmin.openConnection()
+					.getInputStream(), "UTF-8");
+			try {
+				script = cx.compileReader(reader, cssmin.getFile(), 1, null);
+			} finally {
+				reader.close();
+			}
+			sharedScope = scope;
+		} finally {
+			Context.exit();
+		}
+	}
+
+	public static String compress(String css) throws IOException {
+		if (script == null) {
+			init();
+		}
+		Context cx = Context.enter();
+		try {
+			Scriptable compressor = pool.poll();
+			if (compressor != null) {
+				pooled.decrementAndGet();
+			} else {
+				compressor = create(cx);
+			}
+			Function fn = (Function) compressor.get("cssmin", compressor);
+			String result = (String) fn.call(cx, compressor, compressor,
+					new Object[] { css });
+			if (pooled.incrementAndGet() <= POOL_SIZE) {
+				pool.offer(compressor);
+			} else {
+				pooled.decrementAndGet();
+			}
+			return result;
+		} finally {
+			Context.exit();
+		}
+	}
+
+	private static Scriptable create(Context cx) {
+		cx.setOptimizationLevel(9);
+		Scriptable scope = cx.newObject(sharedScope);
+		scope.setPrototype(sharedScope);
+		scope.setParentScope(null);
+		Scriptable exports = cx.newObject(scope);
+		scope.put("exports", scope, exports);
+		script.exec(cx, scope);
+		return (Scriptable) exports.get("compressor", exports);
+	}
+}
\ No newline at end of file
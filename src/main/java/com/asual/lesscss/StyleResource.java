@@ -16,16 +16,10 @@ package com.asual.lesscss;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 
 import javax.servlet.ServletContext;
 
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Function;
-import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.tools.shell.Global;
-
 /**
  * @author Rostislav Hristov
  */
@@ -47,30 +41,24 @@ public class StyleResource extends Resource {
 					(File) resource, charset);
 			lastModified = getLastModified();
 			if (compress) {
-				compress();
+				content = compress(content);
 			}
 		}
 		return content;
 	}
 
-	protected void compress() throws IOException {
-		URL cssmin = getClass().getClassLoader().getResource(
-				"META-INF/cssmin.js");
-		Context cx = Context.enter();
-		cx.setOptimizationLevel(9);
-		Global global = new Global();
-		global.init(cx);
-		Scriptable scope = cx.initStandardObjects(global);
-		cx.evaluateString(scope, "var exports = {};", "exports", 1, null);
-		cx.evaluateReader(scope, new InputStreamReader(cssmin.openConnection()
-				.getInputStream()), cssmin.getFile(), 1, null);
-		Scriptable exports = (Scriptable) scope.get("exports", scope);
-		Scriptable compressor = (Scriptable) exports.get("compressor", exports);
-		Function fn = (Function) compressor.get("cssmin", compressor);
-		content = ((String) Context.call(null, fn, compressor, compressor,
-				new Object[] { new String(content, charset).replaceFirst(
-						"^/\\*", "/*!") })).getBytes(charset);
-		Context.exit();
+	protected byte[] compress(byte[] content) throws IOException {
+		long start = metrics != null ? metrics.start() : 0;
+		byte[] result = StyleCompressor.compress(
+				new String(content, charset).replaceFirst("^/\\*", "/*!"))
+				.getBytes(charset);
+		if (metrics != null) {
+			metrics.record(ResourceMetrics.CSSMIN, start);
+		}
+		return result;
 	}
 
+	protected String getSourceKey() throws IOException {
+		return getSourceDigest();
+	}
 }
\ No newline at end of file
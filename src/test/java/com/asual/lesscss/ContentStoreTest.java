@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ContentStoreTest {
+
+	@Test
+	public void budget() throws Exception {
+		ContentStore store = new ContentStore(4, 10, ContentStore.DIRECT, null);
+		byte[] bytes = "12345678".getBytes("UTF-8");
+		ResourceContent small = new ResourceContent("123".getBytes("UTF-8"),
+				false).store(store);
+		ResourceContent first = new ResourceContent(bytes, false)
+				.store(store);
+		ResourceContent second = new ResourceContent(bytes, false)
+				.store(store);
+		assertFalse(small.isDirect());
+		assertTrue(first.isDirect());
+		assertFalse(second.isDirect());
+		assertEquals(8, store.getUsed());
+		assertArrayEquals(bytes, first.getContent());
+		assertEquals(second.getHash(), first.getHash());
+	}
+
+	@Test
+	public void mapped() throws Exception {
+		ContentStore store = new ContentStore(0, 1024, ContentStore.MAPPED,
+				null);
+		byte[] bytes = "body{color:#f0f0f0}".getBytes("UTF-8");
+		ResourceContent content = new ResourceContent(bytes, true)
+				.store(store);
+		assertTrue(content.isDirect());
+		assertArrayEquals(bytes, content.getContent());
+	}
+}
\ No newline at end of file
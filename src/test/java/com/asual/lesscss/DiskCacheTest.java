@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.testing.HttpTester;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.Test;
+
+public class DiskCacheTest {
+
+	private static final String PACKAGE = new ResourcePackage(new String[] {
+			"/js/test1.js", "/js/test2.js" }).toString();
+
+	@Test
+	public void reuse() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		try {
+			ServletTester tester = start(directory);
+			ResourceServlet servlet = getServlet(tester);
+			String script;
+			String pack;
+			try {
+				assertEquals(200, get(tester, "/img/logo.png").getStatus());
+				assertEquals(0, directory.listFiles().length);
+				script = get(tester, "/js/test1.js").getContent();
+				pack = get(tester, PACKAGE).getContent();
+				assertEquals(2, servlet.getMetrics().getClosureCount());
+				assertTrue(directory.listFiles().length > 0);
+			} finally {
+				tester.stop();
+			}
+			tester = start(directory);
+			servlet = getServlet(tester);
+			try {
+				assertEquals(script, get(tester, "/js/test1.js").getContent());
+				assertEquals(pack, get(tester, PACKAGE).getContent());
+				assertEquals(0, servlet.getMetrics().getClosureCount());
+			} finally {
+				tester.stop();
+			}
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private ServletTester start(File directory) throws Exception {
+		ServletTester tester = new ServletTester();
+		tester.setClassLoader(DiskCacheTest.class.getClassLoader());
+		tester.setContextPath("/");
+		ServletHolder holder = tester.addServlet(ResourceServlet.class, "/*");
+		holder.setInitParameter("compress", "true");
+		holder.setInitParameter("packageCompilation", "true");
+		holder.setInitParameter("diskCache", directory.getAbsolutePath());
+		holder.setInitParameter("jmx", "false");
+		tester.start();
+		return tester;
+	}
+
+	private ResourceServlet getServlet(ServletTester tester) throws Exception {
+		return (ResourceServlet) tester.getContext().getServletHandler()
+				.getServlets()[0].getServlet();
+	}
+
+	private HttpTester get(ServletTester tester, String uri) throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI(uri);
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		return response;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.testing.HttpTester;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImportGraphTest {
+
+	private File directory;
+	private ServletTester tester;
+
+	@Before
+	public void before() throws Exception {
+		directory = Files.createTempDirectory("lesscss").toFile();
+		tester = new ServletTester();
+		tester.setClassLoader(ImportGraphTest.class.getClassLoader());
+		tester.setContextPath("/");
+		tester.setResourceBase(directory.getAbsolutePath());
+		ServletHolder holder = tester.addServlet(LessServlet.class, "*.less");
+		holder.setInitParameter("cache", "false");
+		holder.setInitParameter("jmx", "false");
+		tester.start();
+	}
+
+	@After
+	public void after() throws Exception {
+		tester.stop();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void transitive() throws Exception {
+		long modified = write("a.less", "@import \"b.less\";", 0);
+		write("b.less", "@import \"c.less\";", modified);
+		write("c.less", ".c{color:red}", modified);
+		ImportGraph imports = new ImportGraph(tester.getContext()
+				.getServletContext(), "UTF-8");
+		assertEquals(modified, imports.getLastModified("/a.less"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("/b.less",
+				"/c.less")), imports.getImports("/a.less"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("/b.less",
+				"/a.less")), imports.getDependents("/c.less"));
+		long changed = write("c.less", ".c{color:blue}", modified + 10000);
+		assertEquals(changed, imports.getLastModified("/a.less"));
+	}
+
+	@Test
+	public void watched() throws Exception {
+		long modified = write("a.less", "@import \"b.less\";", 0);
+		write("b.less", ".b{color:red}", modified);
+		ImportGraph imports = new ImportGraph(tester.getContext()
+				.getServletContext(), "UTF-8");
+		ResourceWatcher watcher = new ResourceWatcher(
+				new ResourceWatcher.Listener() {
+					public void changed(Path path) {
+					}
+				});
+		try {
+			imports.setWatcher(watcher);
+			assertEquals(modified, imports.getLastModified("/a.less"));
+			long changed = write("b.less", ".b{color:blue}", modified + 10000);
+			assertEquals(modified, imports.getLastModified("/a.less"));
+			imports.invalidate("/b.less");
+			assertEquals(changed, imports.getLastModified("/a.less"));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	@Test
+	public void cyclic() throws Exception {
+		long modified = write("x.less", "@import \"y.less\";.x{color:red}", 0);
+		write("y.less", "@import \"x.less\";.y{color:red}", modified);
+		ImportGraph imports = new ImportGraph(tester.getContext()
+				.getServletContext(), "UTF-8");
+		assertEquals(modified, imports.getLastModified("/x.less"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("/y.less")),
+				imports.getImports("/x.less"));
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("/x.less")),
+				imports.getDependents("/y.less"));
+		long changed = write("y.less", "@import \"x.less\";.y{color:blue}",
+				modified + 10000);
+		assertEquals(changed, imports.getLastModified("/x.less"));
+		assertEquals(changed, imports.getLastModified("/y.less"));
+	}
+
+	@Test
+	public void servlet() throws Exception {
+		long modified = write("a.less", "@import \"b.less\";", 0);
+		write("b.less", "@import \"c.less\";", modified);
+		write("c.less", ".c{width:1px}", modified);
+		assertTrue(get("/a.less").contains("1px"));
+		write("c.less", ".c{width:2px}", modified + 10000);
+		assertTrue(get("/a.less").contains("2px"));
+	}
+
+	private long write(String name, String content, long modified)
+			throws Exception {
+		File file = new File(directory, name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		if (modified != 0) {
+			file.setLastModified(modified);
+		}
+		return file.lastModified();
+	}
+
+	private String get(String uri) throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI(uri);
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		return response.getContent();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LessEnginePoolTest {
+
+	@Test
+	public void pool() throws Exception {
+		LessEnginePool pool = new LessEnginePool(new LessOptions(), 1, false);
+		assertEquals(0, pool.getCreated());
+		LessEngine engine = pool.borrow();
+		assertEquals(1, pool.getCreated());
+		assertEquals("a{b:c;}", engine.compile("a{b:c}").replaceAll("\\s", ""));
+		pool.release(engine);
+		assertEquals(1, pool.getIdle());
+		assertSame(engine, pool.borrow());
+		pool.discard(engine);
+		assertEquals(0, pool.getCreated());
+		LessEngine replacement = pool.borrow();
+		assertNotSame(engine, replacement);
+		pool.release(replacement);
+		assertEquals(1, pool.getCreated());
+	}
+
+	@Test
+	public void error() throws Exception {
+		final LessEnginePool pool = new LessEnginePool(new LessOptions(), 1,
+				false) {
+			private boolean failed;
+
+			protected LessEngine create() {
+				if (!failed) {
+					failed = true;
+					throw new OutOfMemoryError();
+				}
+				return super.create();
+			}
+		};
+		try {
+			pool.borrow();
+			fail();
+		} catch (OutOfMemoryError e) {
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			LessEngine engine = executor.submit(new Callable<LessEngine>() {
+				public LessEngine call() throws Exception {
+					return pool.borrow();
+				}
+			}).get(10, TimeUnit.SECONDS);
+			pool.release(engine);
+			assertEquals(1, pool.getCreated());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
\ No newline at end of file
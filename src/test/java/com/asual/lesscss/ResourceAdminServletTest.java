@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.testing.HttpTester;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ResourceAdminServletTest {
+
+	private static ServletTester tester;
+
+	@BeforeClass
+	public static void before() throws Exception {
+		tester = new ServletTester();
+		tester.setClassLoader(ResourceAdminServletTest.class.getClassLoader());
+		tester.setContextPath("/");
+		ServletHolder holder = new ServletHolder(LessServlet.class);
+		holder.setName("less");
+		holder.setInitParameter("css", "true");
+		holder.setInitParameter("jmx", "false");
+		holder.setInitOrder(1);
+		tester.getContext().addServlet(holder, "*.css");
+		tester.addServlet(ResourceAdminServlet.class, "/admin")
+				.setInitParameter("token", "secret");
+		tester.start();
+	}
+
+	private HttpTester request(String method, String uri, String token)
+			throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod(method);
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI(uri);
+		if (token != null) {
+			request.setHeader("X-Token", token);
+		}
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		return response;
+	}
+
+	@Test
+	public void forbidden() throws Exception {
+		assertEquals(403, request("GET", "/admin", null).getStatus());
+		assertEquals(403, request("POST", "/admin?action=invalidate", "wrong")
+				.getStatus());
+	}
+
+	@Test
+	public void admin() throws Exception {
+		request("GET", "/css/test.css", null);
+		HttpTester response = request("GET", "/admin", "secret");
+		assertEquals(200, response.getStatus());
+		assertTrue(response.getContent().contains("# less"));
+		assertTrue(response.getContent().contains("resource\t/css/test.css"));
+		assertTrue(response.getContent().contains(
+				"/css/layer1/layer2/import.css"));
+		assertEquals(204, request("POST",
+				"/admin?action=invalidate&file=/css/layer1/layer2/import.css",
+				"secret").getStatus());
+		assertEquals(202, request("POST",
+				"/admin?action=recompile&uri=/css/test.css", "secret")
+				.getStatus());
+		assertEquals(204, request("POST", "/admin?action=invalidate", "secret")
+				.getStatus());
+		assertEquals("body{color:#f0f0f0}", request("GET", "/css/test.css",
+				null).getContent());
+	}
+
+	@AfterClass
+	public static void after() throws Exception {
+		tester.stop();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResourceCacheTest {
+
+	@Test
+	public void weight() throws Exception {
+		ResourceCache<String, String> cache = new ResourceCache<String, String>(
+				100, 100);
+		cache.put("a", "a", 40);
+		Thread.sleep(2);
+		cache.put("b", "b", 40);
+		Thread.sleep(2);
+		assertEquals("a", cache.get("a"));
+		cache.put("c", "c", 40);
+		assertNull(cache.get("b"));
+		assertEquals("a", cache.get("a"));
+		assertEquals("c", cache.get("c"));
+		assertEquals(80, cache.getWeight());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void entries() throws Exception {
+		ResourceCache<String, String> cache = new ResourceCache<String, String>(
+				Long.MAX_VALUE, 10);
+		for (int i = 0; i < 100; i++) {
+			cache.putIfAbsent(String.valueOf(i), String.valueOf(i));
+		}
+		assertTrue(cache.size() <= 10);
+		cache.setWeight("99", 10);
+		assertEquals(10, cache.getWeight());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResourceCompilerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void css() throws Exception {
+		File output = folder.getRoot();
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("css", "true");
+		ResourceCompiler compiler = new ResourceCompiler(output, parameters,
+				true);
+		try {
+			compiler.compile(new String[] { "/css/test.css" }, output);
+		} finally {
+			compiler.destroy();
+		}
+		Properties manifest = new Properties();
+		InputStream input = new FileInputStream(new File(output,
+				ResourceCompiler.MANIFEST));
+		try {
+			manifest.load(input);
+		} finally {
+			input.close();
+		}
+		String entry = manifest.getProperty("/css/test.css");
+		assertNotNull(entry);
+		File artifact = new File(new File(output, ResourceCompiler.MANIFEST)
+				.getParentFile(), entry.split(";")[0]);
+		assertEquals("body{color:#f0f0f0}", new String(
+				ResourceUtils.readBinaryFile(artifact), "UTF-8"));
+	}
+
+	@Test
+	public void extensionless() throws Exception {
+		File output = folder.getRoot();
+		String path = new ResourcePackage(new String[] { "/js/test1.js",
+				"/js/test2.js" }).toString();
+		ResourceCompiler compiler = new ResourceCompiler(output,
+				new HashMap<String, String>(), false);
+		try {
+			compiler.compile(new String[] { path, "/js/test1.js" }, output);
+		} finally {
+			compiler.destroy();
+		}
+		Properties manifest = new Properties();
+		InputStream input = new FileInputStream(new File(output,
+				ResourceCompiler.MANIFEST));
+		try {
+			manifest.load(input);
+		} finally {
+			input.close();
+		}
+		String name = manifest.getProperty(path).split(";")[0];
+		assertEquals(-1, name.indexOf('.'));
+		assertTrue(new File(new File(output, ResourceCompiler.MANIFEST)
+				.getParentFile(), name).isFile());
+		assertTrue(manifest.getProperty("/js/test1.js").split(";")[0]
+				.endsWith(".js"));
+	}
+}
\ No newline at end of file
@@ -16,8 +16,19 @@ package com.asual.lesscss;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
 
 import org.junit.Test;
 
@@ -53,4 +64,140 @@ public class ResourcePackageTest {
 		assertArrayEquals(resources, rp.getResources());
 		assertEquals(version, rp.getVersion());
 	}
+
+	@Test
+	public void equality() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] {
+				"/css/test1.css", "/css/test2.css" });
+		rp.setExtension("css");
+		ResourcePackage decoded = ResourcePackage.fromString(rp.toString());
+		assertEquals(rp, decoded);
+		assertEquals(rp.hashCode(), decoded.hashCode());
+	}
+
+	@Test
+	public void mutable() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] {
+				"/css/test1.css", "/css/test2.css" });
+		rp.setExtension("css");
+		String path = rp.toString();
+		ResourcePackage decoded = ResourcePackage.fromString(path);
+		decoded.setName("package");
+		decoded.getResources()[0] = "/css/test3.css";
+		assertEquals("package", decoded.getName());
+		assertEquals(rp, ResourcePackage.fromString(path));
+		assertSame(ResourcePackage.decode(path), ResourcePackage.decode(path));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void immutable() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] {
+				"/css/test1.css", "/css/test2.css" });
+		rp.setExtension("css");
+		ResourcePackage.decode(rp.toString()).setName("package");
+	}
+
+	@Test
+	public void codec() throws Exception {
+		String[] resources = new String[] { "/js/test1.js", "/js/test2.js",
+				"/js/test3.js", "/js/test4.js", "/js/test5.js" };
+		ResourcePackage rp = new ResourcePackage(resources);
+		rp.setExtension("js");
+		String path = rp.toString();
+		byte[] key = Base64.decodeBase64(path.substring(1,
+				path.lastIndexOf(".")).getBytes("UTF-8"));
+		assertEquals(PackageCodec.VERSION, key[0]);
+		assertArrayEquals(resources, ResourcePackage.fromString(path)
+				.getResources());
+	}
+
+	@Test
+	public void legacy() throws Exception {
+		String[] resources = new String[] { "/css/test1.css", "/css/test2.css",
+				"/css/test3.css" };
+		byte[] key = ("0\n" + StringUtils.join(resources, "\n"))
+				.getBytes("UTF-8");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DeflaterOutputStream out = new DeflaterOutputStream(baos);
+		out.write(key);
+		out.close();
+		String path = "/"
+				+ Base64.encodeBase64URLSafeString(baos.toByteArray())
+						.replaceAll("-", "+") + ".css";
+		assertArrayEquals(resources, ResourcePackage.fromString(path)
+				.getResources());
+	}
+
+	@Test
+	public void prefixes() throws Exception {
+		String[] resources = new String[] { "/app/widgets/calendar.js",
+				"/app/widgets/dialog.js", "/app/widgets/grid.js" };
+		ResourcePackage rp = new ResourcePackage(resources);
+		rp.setExtension("js");
+		String plain = rp.toString();
+		try {
+			ResourcePackage.setPrefixes("/app/widgets/");
+			String primed = rp.toString();
+			assertFalse(primed.equals(plain));
+			ResourcePackage other = new ResourcePackage(new String[] {
+					"/app/widgets/tree.js", "/app/widgets/menu.js" });
+			assertArrayEquals(other.getResources(), ResourcePackage
+					.fromString(other.toString()).getResources());
+			ResourcePackage.setPrefixes("/other/");
+			assertNull(ResourcePackage.fromString(primed));
+			assertArrayEquals(resources, ResourcePackage.fromString(plain)
+					.getResources());
+		} finally {
+			ResourcePackage.setPrefixes();
+		}
+	}
+
+	@Test
+	public void version2() throws Exception {
+		String[] resources = new String[] { "/js/test1.js", "/js/test2.js",
+				"/js/test3.js" };
+		byte[] key = ("0\n" + StringUtils.join(resources, "\n"))
+				.getBytes("UTF-8");
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		deflater.setDictionary(("\n/WEB-INF/" + PackageCodec.DICTIONARY)
+				.getBytes("UTF-8"));
+		deflater.setInput(key);
+		deflater.finish();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(2);
+		byte[] buf = new byte[1024];
+		while (!deflater.finished()) {
+			baos.write(buf, 0, deflater.deflate(buf));
+		}
+		deflater.end();
+		String path = "/"
+				+ Base64.encodeBase64URLSafeString(baos.toByteArray())
+						.replaceAll("-", "+") + ".js";
+		assertArrayEquals(resources, ResourcePackage.fromString(path)
+				.getResources());
+	}
+
+	private static String encode(String key, String extension)
+			throws Exception {
+		return "/"
+				+ Base64.encodeBase64URLSafeString(
+						PackageCodec.encode(key.getBytes("UTF-8"))).replaceAll(
+						"-", "+") + "." + extension;
+	}
+
+	@Test
+	public void bounded() throws Exception {
+		String path = encode("0\n" + StringUtils.repeat("/a\n", 20000), "js");
+		assertTrue(path.length() < 256);
+		assertNull(ResourcePackage.fromString(path));
+		String member = "/" + StringUtils.repeat("a", 200) + ".js";
+		for (int i = 0; i < 1000; i++) {
+			path = encode("0\n/" + i + ".js"
+					+ StringUtils.repeat("\n" + member,
+							ResourcePackage.MAX_RESOURCES - 1), "js");
+			assertNotNull(ResourcePackage.fromString(path));
+		}
+		assertTrue(ResourcePackage.getCacheSize() < 1000);
+		assertTrue(ResourcePackage.getCacheWeight() <= 8L * 1024 * 1024);
+	}
 }
\ No newline at end of file
@@ -15,7 +15,28 @@
 package com.asual.lesscss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.testing.HttpTester;
 import org.eclipse.jetty.testing.ServletTester;
 import org.junit.AfterClass;
@@ -27,7 +48,44 @@ import org.junit.Test;
  */
 public class ResourceServletTest {
 
+	public static class AsyncServlet extends ResourceServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		private volatile String thread;
+		private final CountDownLatch compiled = new CountDownLatch(1);
+		private final AtomicInteger writes = new AtomicInteger();
+
+		protected ResourceContent getContent(String packagePath,
+				String[] uris, String mimeType, long lastModified)
+				throws Exception {
+			thread = Thread.currentThread().getName();
+			try {
+				if ("slow".equals(getServletName())) {
+					Thread.sleep(500);
+				}
+				return super.getContent(packagePath, uris, mimeType,
+						lastModified);
+			} finally {
+				compiled.countDown();
+			}
+		}
+
+		protected void write(HttpServletRequest request,
+				HttpServletResponse response, ResourceContent resourceContent,
+				String mimeType, long lastModified) throws IOException {
+			writes.incrementAndGet();
+			super.write(request, response, resourceContent, mimeType,
+					lastModified);
+		}
+	}
+
 	private static ServletTester tester;
+	private static ServletHolder packageHolder;
+	private static ServletHolder streamHolder;
+	private static ServletHolder asyncHolder;
+	private static ServletHolder slowHolder;
+	private static ServletHolder lazyHolder;
 
 	@BeforeClass
 	public static void before() throws Exception {
@@ -36,6 +94,45 @@ public class ResourceServletTest {
 		tester.setContextPath("/");
 		tester.addServlet(ResourceServlet.class, "/*").setInitParameter(
 				"compress", "true");
+		ServletHolder holder = new ServletHolder(ResourceServlet.class);
+		holder.setName("package");
+		holder.setInitParameter("packageCompilation", "true");
+		holder.setInitParameter("offHeapThreshold", "0");
+		holder.setInitParameter("warmup", "/js/test1.js, /js/*2.js, "
+				+ new ResourcePackage(new String[] { "/js/test1.js",
+						"/js/test2.js" }));
+		holder.setInitParameter("warmupWait", "true");
+		holder.setInitOrder(1);
+		packageHolder = holder;
+		tester.getContext().addServlet(holder, "/package/*");
+		holder = new ServletHolder(AsyncServlet.class);
+		holder.setName("async");
+		holder.setInitParameter("async", "true");
+		holder.setAsyncSupported(true);
+		asyncHolder = holder;
+		tester.getContext().addServlet(holder, "/async/*");
+		holder = new ServletHolder(AsyncServlet.class);
+		holder.setName("slow");
+		holder.setInitParameter("async", "true");
+		holder.setInitParameter("asyncTimeout", "100");
+		holder.setAsyncSupported(true);
+		slowHolder = holder;
+		tester.getContext().addServlet(holder, "/slow/*");
+		holder = new ServletHolder(ResourceServlet.class);
+		holder.setName("lazy");
+		holder.setInitParameter("warmup", "/css/**/*.css");
+		holder.setInitOrder(1);
+		lazyHolder = holder;
+		tester.getContext().addServlet(holder, "/lazy/*");
+		holder = new ServletHolder(ResourceServlet.class);
+		holder.setName("stream");
+		holder.setInitParameter("streamThreshold", "0");
+		streamHolder = holder;
+		tester.getContext().addServlet(holder, "/img/logo.png");
+		holder = new ServletHolder(ResourceServlet.class);
+		holder.setName("timing");
+		holder.setInitParameter("serverTiming", "true");
+		tester.getContext().addServlet(holder, "/timing/*");
 		tester.start();
 	}
 
@@ -80,6 +177,313 @@ public class ResourceServletTest {
 						System.getProperty("line.separator"), "\n"));
 	}
 
+	@Test
+	public void packageCompilation() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] { "/js/test1.js",
+				"/js/test2.js" });
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/package" + rp.toString());
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		StringBuilder sb = new StringBuilder();
+		sb.append("/*\n");
+		sb.append(" * License and copyright 1\n");
+		sb.append(" */\n");
+		sb.append("/*\n");
+		sb.append(" * License and copyright 2\n");
+		sb.append(" */\n");
+		sb.append("var test1=1;(function(){return 2})();var test2=2;");
+		assertEquals(
+				sb.toString(),
+				response.getContent().replaceAll(
+						System.getProperty("line.separator"), "\n"));
+	}
+
+	@Test
+	public void warmup() throws Exception {
+		ResourceServlet servlet = (ResourceServlet) packageHolder.getServlet();
+		assertTrue(servlet.isReady());
+		assertTrue(servlet.resources.peek("/js/test1.js").getSize() > 0);
+		assertTrue(servlet.resources.peek("/js/test2.js").getSize() > 0);
+	}
+
+	@Test
+	public void warmupGlob() throws Exception {
+		ResourceServlet servlet = (ResourceServlet) lazyHolder.getServlet();
+		List<String> paths = servlet.getWarmupPaths("/css/**/*.css");
+		assertTrue(paths.contains("/css/test.css"));
+		assertTrue(paths.contains("/css/layer1/layer2/import.css"));
+		assertFalse(servlet.getWarmupPaths("/css/*.css").contains(
+				"/css/layer1/layer2/import.css"));
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!servlet.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(servlet.isReady());
+		assertTrue(servlet.resources.peek("/css/test.css").getSize() > 0);
+		assertTrue(servlet.resources.peek("/css/layer1/layer2/import.css")
+				.getSize() > 0);
+	}
+
+	@Test
+	public void gzip() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] { "/js/test1.js",
+				"/js/test2.js" });
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setHeader("Accept-Encoding", "deflate;q=0.5, gzip");
+		request.setVersion("HTTP/1.1");
+		request.setURI(rp.toString());
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.getHeader("Vary"));
+	}
+
+	@Test
+	public void etag() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/js/test2.js");
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		String etag = response.getHeader("ETag");
+		assertNotNull(etag);
+		request.setHeader("If-None-Match", etag);
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(304, response.getStatus());
+		assertEquals(etag, response.getHeader("ETag"));
+	}
+
+	@Test
+	public void async() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] { "/js/test1.js",
+				"/js/test2.js" });
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/async" + rp.toString());
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(200, response.getStatus());
+		assertEquals("var test2=2;", response.getContent().substring(
+				response.getContent().lastIndexOf("\n") + 1));
+		assertTrue(((AsyncServlet) asyncHolder.getServlet()).thread
+				.startsWith("lesscss-compiler-"));
+	}
+
+	@Test
+	public void asyncTimeout() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/slow"
+				+ new ResourcePackage(new String[] { "/js/test2.js" }));
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(503, response.getStatus());
+		assertNull(response.getHeader("ETag"));
+		assertNull(response.getHeader("Content-Type"));
+		byte[] body = response.getContentBytes();
+		assertTrue(body == null || body.length == 0);
+		AsyncServlet servlet = (AsyncServlet) slowHolder.getServlet();
+		assertEquals(1, servlet.getMetrics().getAsyncTimeouts());
+		assertTrue(servlet.compiled.await(5, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		assertEquals(0, servlet.writes.get());
+		assertTrue(servlet.thread.startsWith("lesscss-compiler-"));
+	}
+
+	@Test
+	public void range() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setHeader("Range", "bytes=0-99");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/img/logo.png");
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 0-99/13831", response.getHeader("Content-Range"));
+		assertEquals(100, response.getContent().getBytes(
+				response.getCharacterEncoding()).length);
+		request.setHeader("Range", "bytes=20000-");
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(416, response.getStatus());
+		request.setHeader("Range", "bytes=0-2,-3");
+		request.setURI("/js/test2.js");
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(206, response.getStatus());
+		assertTrue(response.getContentType().startsWith(
+				"multipart/byteranges"));
+		assertTrue(response.getContent().contains("/*"));
+		assertTrue(response.getContent().contains("=2;"));
+	}
+
+	@Test
+	public void head() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("HEAD");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/img/logo.png");
+		String response = tester.getResponses(request.generate());
+		assertTrue(response.startsWith("HTTP/1.1 200"));
+		assertTrue(response.contains("Content-Length: 13831"));
+		assertTrue(response.endsWith("\r\n\r\n"));
+	}
+
+	@Test
+	public void notModified() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/js/test1.js");
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		long lastModified = response.getDateHeader("Last-Modified");
+		request.setURI("/js/test2.js");
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		lastModified = Math.max(lastModified,
+				response.getDateHeader("Last-Modified"));
+		ResourcePackage rp = new ResourcePackage(new String[] { "/js/test2.js",
+				"/js/test1.js" });
+		request.setURI(rp.toString());
+		request.setDateHeader("If-Modified-Since", lastModified);
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(304, response.getStatus());
+		assertNull(response.getHeader("ETag"));
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/img/logo.png");
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		request.setHeader("If-None-Match", response.getHeader("ETag"));
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertEquals(304, response.getStatus());
+		ResourceServlet servlet = (ResourceServlet) streamHolder.getServlet();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(servlet.objectName));
+		assertTrue((Long) server.getAttribute(servlet.objectName,
+				"NotModifiedResponses") >= 1);
+		@SuppressWarnings("unchecked")
+		Map<String, Long> bytes = (Map<String, Long>) server.getAttribute(
+				servlet.objectName, "BytesServedByMimeType");
+		assertTrue(bytes.get("image/png") >= 13831);
+	}
+
+	@Test
+	public void serverTiming() throws Exception {
+		ResourcePackage rp = new ResourcePackage(new String[] { "/js/test1.js",
+				"/js/test2.js" });
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI("/timing" + rp.toString());
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		String header = response.getHeader("Server-Timing");
+		assertNotNull(header);
+		assertTrue(header.contains("closure;dur="));
+		assertTrue(header.contains("desc=\"/js/test2.js\""));
+		assertTrue(header.contains("total;dur="));
+		request.setURI(rp.toString());
+		response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		assertNull(response.getHeader("Server-Timing"));
+	}
+
+	@Test
+	public void packageReuse() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		File js = new File(directory, "js");
+		js.mkdir();
+		File first = new File(js, "a.js");
+		File second = new File(js, "b.js");
+		Files.write(first.toPath(), "var a=1;".getBytes("UTF-8"));
+		Files.write(second.toPath(), "var b=1;".getBytes("UTF-8"));
+		ServletTester tester = new ServletTester();
+		try {
+			tester.setClassLoader(ResourceServletTest.class.getClassLoader());
+			tester.setContextPath("/");
+			tester.setResourceBase(directory.getAbsolutePath());
+			ServletHolder holder = tester.addServlet(ResourceServlet.class,
+					"/*");
+			holder.setInitParameter("cache", "false");
+			holder.setInitParameter("jmx", "false");
+			tester.start();
+			ResourceServlet servlet = (ResourceServlet) holder.getServlet();
+			String[] uris = new String[] { "/js/a.js", "/js/b.js" };
+			String uri = new ResourcePackage(uris).toString();
+			HttpTester response = get(tester, uri);
+			assertEquals("var a=1;\nvar b=1;", response.getContent());
+			String etag = response.getHeader("ETag");
+			PackageContent content = servlet.packages
+					.peek(new ResourcePackage(uris));
+			assertNotNull(content);
+			assertEquals(0, servlet.metrics.getResourceCacheHits());
+			assertEquals(2, servlet.metrics.getResourceCacheMisses());
+			assertEquals(0, servlet.metrics.getPackageCacheHits());
+			assertEquals(1, servlet.metrics.getPackageCacheMisses());
+			response = get(tester, uri);
+			assertEquals(etag, response.getHeader("ETag"));
+			assertSame(content, servlet.packages.peek(new ResourcePackage(
+					uris)));
+			assertEquals(2, servlet.metrics.getResourceCacheHits());
+			assertEquals(2, servlet.metrics.getResourceCacheMisses());
+			assertEquals(1, servlet.metrics.getPackageCacheHits());
+			assertEquals(1, servlet.metrics.getPackageCacheMisses());
+			Files.write(second.toPath(), "var b=2;".getBytes("UTF-8"));
+			second.setLastModified(second.lastModified() + 10000);
+			response = get(tester, uri);
+			assertEquals("var a=1;\nvar b=2;", response.getContent());
+			assertFalse(etag.equals(response.getHeader("ETag")));
+			assertNotSame(content, servlet.packages.peek(new ResourcePackage(
+					uris)));
+		} finally {
+			tester.stop();
+			first.delete();
+			second.delete();
+			js.delete();
+			directory.delete();
+		}
+	}
+
+	private static HttpTester get(ServletTester tester, String uri)
+			throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI(uri);
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		return response;
+	}
+
 	@AfterClass
 	public static void after() throws Exception {
 		tester.stop();
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ResourceTest {
+
+	private static ServletTester tester;
+
+	private static class CountingResource extends Resource {
+
+		private final AtomicInteger loads = new AtomicInteger();
+		private volatile int failures;
+		private volatile Error error;
+		private volatile String sourceKey;
+
+		CountingResource(ServletContext servletContext, String uri)
+				throws ResourceNotFoundException {
+			super(servletContext, uri, "UTF-8", true);
+		}
+
+		protected byte[] load() throws Exception {
+			loads.incrementAndGet();
+			Thread.sleep(200);
+			if (failures > 0) {
+				failures--;
+				throw new IOException("Failed to load.");
+			}
+			if (error != null) {
+				throw error;
+			}
+			return super.load();
+		}
+
+		protected String getSourceKey() throws IOException {
+			return sourceKey;
+		}
+	}
+
+	@BeforeClass
+	public static void before() throws Exception {
+		tester = new ServletTester();
+		tester.setClassLoader(ResourceTest.class.getClassLoader());
+		tester.setContextPath("/");
+		tester.start();
+	}
+
+	@AfterClass
+	public static void after() throws Exception {
+		tester.stop();
+	}
+
+	@Test
+	public void singleFlight() throws Exception {
+		final CountingResource resource = new CountingResource(tester
+				.getContext().getServletContext(), "/js/test1.js");
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						start.await();
+						return resource.getContent();
+					}
+				}));
+			}
+			start.countDown();
+			byte[] expected = results.get(0).get();
+			for (Future<byte[]> result : results) {
+				assertArrayEquals(expected, result.get());
+			}
+			assertEquals(1, resource.loads.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void retry() throws Exception {
+		CountingResource resource = new CountingResource(tester.getContext()
+				.getServletContext(), "/js/test1.js");
+		resource.failures = 1;
+		try {
+			resource.getContent();
+			fail();
+		} catch (IOException e) {
+		}
+		byte[] content = resource.getContent();
+		assertEquals(2, resource.loads.get());
+		assertArrayEquals(content, resource.getContent());
+		assertEquals(2, resource.loads.get());
+	}
+
+	@Test
+	public void error() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		try {
+			SharedDirectoryStore store = new SharedDirectoryStore(directory,
+					"options", 5000);
+			CountingResource resource = new CountingResource(tester
+					.getContext().getServletContext(), "/js/test1.js");
+			resource.setArtifactStore(store);
+			resource.sourceKey = "source";
+			resource.error = new Error("Failed to compile.");
+			try {
+				resource.getContent();
+				fail();
+			} catch (Error e) {
+			}
+			assertFalse(new File(directory, store.getKey("source") + ".lock")
+					.exists());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
\ No newline at end of file
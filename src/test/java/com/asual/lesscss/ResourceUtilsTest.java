@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ResourceUtilsTest {
+
+	@Test
+	public void text() throws Exception {
+		byte[] plain = "body{color:#f0f0f0}".getBytes("UTF-8");
+		assertSame(plain, ResourceUtils.toText(plain, "UTF-8"));
+		byte[] bom = new byte[plain.length + 3];
+		bom[0] = (byte) 0xEF;
+		bom[1] = (byte) 0xBB;
+		bom[2] = (byte) 0xBF;
+		System.arraycopy(plain, 0, bom, 3, plain.length);
+		assertArrayEquals(plain, ResourceUtils.toText(bom, "UTF-8"));
+		byte[] utf16 = "\uFEFFbody{content:\"\u00e9\"}".getBytes("UTF-16LE");
+		assertArrayEquals("body{content:\"\u00e9\"}".getBytes("UTF-8"),
+				ResourceUtils.toText(utf16, "UTF-8"));
+		assertEquals("body{content:\"\u00e9\"}",
+				ResourceUtils.decodeText(utf16, "UTF-8"));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.testing.HttpTester;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.Test;
+
+public class ResourceWatcherTest {
+
+	public static class PollingServlet extends ResourceServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		protected boolean isWatched(String uri, Resource resource) {
+			return false;
+		}
+	}
+
+	@Test
+	public void watch() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		ServletTester tester = new ServletTester();
+		try {
+			File watched = new File(directory, "watch/test.css");
+			File polled = new File(directory, "poll/test.css");
+			for (File file : new File[] { watched, polled }) {
+				file.getParentFile().mkdir();
+				Files.write(file.toPath(), "body{color:red}".getBytes("UTF-8"));
+			}
+			tester.setClassLoader(ResourceWatcherTest.class.getClassLoader());
+			tester.setContextPath("/");
+			tester.setResourceBase(directory.getAbsolutePath());
+			ServletHolder holder = tester.addServlet(ResourceServlet.class,
+					"/watch/*");
+			holder.setInitParameter("cache", "false");
+			holder.setInitParameter("watch", "true");
+			holder.setInitParameter("jmx", "false");
+			holder = tester.addServlet(PollingServlet.class, "/poll/*");
+			holder.setInitParameter("cache", "false");
+			holder.setInitParameter("watch", "true");
+			holder.setInitParameter("jmx", "false");
+			tester.start();
+			assertEquals("body{color:red}", get(tester, "/watch/test.css"));
+			assertEquals("body{color:red}", get(tester, "/poll/test.css"));
+			for (File file : new File[] { watched, polled }) {
+				Files.write(file.toPath(), "body{color:blue}".getBytes("UTF-8"));
+				file.setLastModified(file.lastModified() + 10000);
+			}
+			assertEquals("body{color:blue}", get(tester, "/poll/test.css"));
+			String content = null;
+			long deadline = System.currentTimeMillis() + 30000;
+			while (System.currentTimeMillis() < deadline) {
+				content = get(tester, "/watch/test.css");
+				if (!"body{color:red}".equals(content)) {
+					break;
+				}
+				Thread.sleep(100);
+			}
+			assertEquals("body{color:blue}", content);
+		} finally {
+			tester.stop();
+			for (String name : new String[] { "watch", "poll" }) {
+				new File(directory, name + "/test.css").delete();
+				new File(directory, name).delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private String get(ServletTester tester, String uri) throws Exception {
+		HttpTester request = new HttpTester();
+		request.setMethod("GET");
+		request.setHeader("Host", "tester");
+		request.setVersion("HTTP/1.1");
+		request.setURI(uri);
+		HttpTester response = new HttpTester();
+		response.parse(tester.getResponses(request.generate()));
+		return response.getContent();
+	}
+}
\ No newline at end of file
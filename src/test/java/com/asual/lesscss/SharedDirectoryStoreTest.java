@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+public class SharedDirectoryStoreTest {
+
+	@Test
+	public void shared() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		try {
+			final SharedDirectoryStore first = new SharedDirectoryStore(
+					directory, "options", 5000);
+			SharedDirectoryStore second = new SharedDirectoryStore(directory,
+					"options", 5000);
+			final String key = first.getKey("source");
+			assertEquals(key, second.getKey("source"));
+			assertNull(first.get(key, 1));
+			File lock = new File(directory, key + ".lock");
+			assertTrue(lock.exists());
+			final byte[] bytes = StringUtils.repeat("body{color:#f0f0f0}", 100)
+					.getBytes("UTF-8");
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(200);
+						first.put(key, new ResourceContent(bytes, true, 1));
+					} catch (Exception e) {
+					}
+				}
+			});
+			thread.start();
+			ResourceContent content = second.get(key, 1);
+			thread.join();
+			assertNotNull(content);
+			assertArrayEquals(bytes, content.getContent());
+			assertNotNull(content.getVariant(ResourceContent.GZIP));
+			assertFalse(lock.exists());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void release() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		try {
+			SharedDirectoryStore first = new SharedDirectoryStore(directory,
+					"options", 5000);
+			SharedDirectoryStore second = new SharedDirectoryStore(directory,
+					"options", 5000);
+			String key = first.getKey("source");
+			assertNull(first.get(key, 1));
+			second.release(key);
+			assertTrue(new File(directory, key + ".lock").exists());
+			first.release(key);
+			assertNull(second.get(key, 1));
+			assertTrue(new File(directory, key + ".lock").exists());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void stale() throws Exception {
+		File directory = Files.createTempDirectory("lesscss").toFile();
+		try {
+			SharedDirectoryStore store = new SharedDirectoryStore(directory,
+					"options", 200, 60000);
+			String key = store.getKey("source");
+			File lock = new File(directory, key + ".lock");
+			File clock = new File(directory, ".clock");
+			assertTrue(lock.createNewFile());
+			long start = System.currentTimeMillis();
+			assertNull(store.get(key, 1));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertTrue(clock.delete());
+			assertNull(store.get(key, 1));
+			assertFalse(clock.exists());
+			store.release(key);
+			assertTrue(lock.exists());
+			assertTrue(lock.setLastModified(lock.lastModified() - 120000));
+			assertNull(store.get(key, 1));
+			store.release(key);
+			assertFalse(lock.exists());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.asual.lesscss;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.tools.shell.Global;
+
+public class StyleCompressorTest {
+
+	private static final String[] SOURCES = { "/css/test.css",
+			"/css/import.css", "/css/import2.css",
+			"/css/layer1/layer2/import.css" };
+
+	@Test
+	public void pooled() throws Exception {
+		final List<String> inputs = new ArrayList<String>();
+		for (String source : SOURCES) {
+			URL url = getClass().getClassLoader().getResource(
+					"META-INF" + source);
+			inputs.add(new String(ResourceUtils.readTextUrl(url, "UTF-8"),
+					"UTF-8"));
+		}
+		inputs.add("/* comment */ a  { color : #ff0000 ; margin: 0px 0px; }");
+		inputs.add("@media screen { .b { background: url( x.png ) ; } }");
+		final List<String> expected = new ArrayList<String>();
+		for (String input : inputs) {
+			expected.add(compress(input));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<List<String>>() {
+					public List<String> call() throws Exception {
+						List<String> result = new ArrayList<String>();
+						for (String input : inputs) {
+							result.add(StyleCompressor.compress(input));
+						}
+						return result;
+					}
+				}));
+			}
+			for (Future<List<String>> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private String compress(String css) throws Exception {
+		URL cssmin = getClass().getClassLoader().getResource(
+				"META-INF/cssmin.js");
+		Context cx = Context.enter();
+		try {
+			cx.setOptimizationLevel(9);
+			Global global = new Global();
+			global.init(cx);
+			Scriptable scope = cx.initStandardObjects(global);
+			cx.evaluateString(scope, "var exports = {};", "exports", 1, null);
+			Reader reader = new InputStreamReader(cssmin.openConnection()
+					.getInputStream(), "UTF-8");
+			try {
+				cx.evaluateReader(scope, reader, cssmin.getFile(), 1, null);
+			} finally {
+				reader.close();
+			}
+			Scriptable exports = (Scriptable) scope.get("exports", scope);
+			Scriptable compressor = (Scriptable) exports.get("compressor",
+					exports);
+			Function fn = (Function) compressor.get("cssmin", compressor);
+			return (String) fn.call(cx, compressor, compressor,
+					new Object[] { css });
+		} finally {
+			Context.exit();
+		}
+	}
+}
\ No newline at end of file